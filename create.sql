@@ -1,6 +1,10 @@
 CREATE DATABASE IF NOT EXISTS forums;
 USE forums;
 
+DROP PROCEDURE IF EXISTS create_post;
+DROP TABLE IF EXISTS sequence;
+DROP TABLE IF EXISTS counters;
+DROP TABLE IF EXISTS forum_users;
 DROP TABLE IF EXISTS following;
 DROP TABLE IF EXISTS subscription;
 DROP TABLE IF EXISTS post;
@@ -44,6 +48,8 @@ CREATE TABLE thread (
   isClosed      BOOLEAN            NOT NULL DEFAULT FALSE,
   isDeleted     BOOLEAN            NOT NULL DEFAULT FALSE,
   posts         INT                NOT NULL DEFAULT 0,
+  all_posts     INT                NOT NULL DEFAULT 0,
+  epoch         INT                NOT NULL DEFAULT 0,
   FOREIGN KEY (forum_id) REFERENCES forum (id)
     ON DELETE CASCADE,
   FOREIGN KEY (user_id) REFERENCES user_profile (id)
@@ -60,6 +66,9 @@ CREATE TABLE post (
   forum_id      INT                NOT NULL,
   thread_id     INT                NOT NULL,
   parent        INT                NULL     DEFAULT NULL,
+  root_id       INT                NOT NULL DEFAULT 0,
+  root_desc     INT                NOT NULL DEFAULT 0,
+  path          VARBINARY(760)     NOT NULL DEFAULT '',
   creation_time DATETIME           NOT NULL,
   likes         INT                NOT NULL DEFAULT 0,
   dislikes      INT                NOT NULL DEFAULT 0,
@@ -68,6 +77,7 @@ CREATE TABLE post (
   isEdited      BOOLEAN            NOT NULL DEFAULT FALSE,
   isSpam        BOOLEAN            NOT NULL DEFAULT FALSE,
   isDeleted     BOOLEAN            NOT NULL DEFAULT FALSE,
+  deleted_epoch INT                NOT NULL DEFAULT 0,
   FOREIGN KEY (user_id) REFERENCES user_profile (id)
     ON DELETE CASCADE,
   FOREIGN KEY (forum_id) REFERENCES forum (id)
@@ -76,15 +86,23 @@ CREATE TABLE post (
     ON DELETE CASCADE,
   KEY (user_id, creation_time),
   KEY (thread_id, creation_time),
+  KEY (thread_id, path),
+  KEY (thread_id, root_desc, path),
+  KEY (thread_id, parent),
+  KEY (root_id, path),
   KEY (forum_id, creation_time),
   KEY (user_id, forum_id)
 )
   DEFAULT CHARSET = utf8;
 
 CREATE TABLE following (
-  follower INT NOT NULL,
-  followee INT NOT NULL,
+  follower      INT NOT NULL,
+  followee      INT NOT NULL,
+  follower_name VARCHAR(50),
+  followee_name VARCHAR(50),
   UNIQUE KEY (follower, followee),
+  KEY (followee, follower_name, follower),
+  KEY (follower, followee_name, followee),
   FOREIGN KEY (follower) REFERENCES user_profile (id)
     ON DELETE CASCADE,
   FOREIGN KEY (followee) REFERENCES user_profile (id)
@@ -101,4 +119,89 @@ CREATE TABLE subscription (
   FOREIGN KEY (thread_id) REFERENCES thread (id)
     ON DELETE CASCADE
 )
-  DEFAULT CHARSET = utf8;
\ No newline at end of file
+  DEFAULT CHARSET = utf8;
+
+CREATE TABLE forum_users (
+  forum_id  INT NOT NULL,
+  user_name VARCHAR(50),
+  user_id   INT NOT NULL,
+  PRIMARY KEY (forum_id, user_id),
+  KEY (forum_id, user_name, user_id),
+  KEY (user_id),
+  FOREIGN KEY (forum_id) REFERENCES forum (id)
+    ON DELETE CASCADE,
+  FOREIGN KEY (user_id) REFERENCES user_profile (id)
+    ON DELETE CASCADE
+)
+  DEFAULT CHARSET = utf8;
+
+CREATE TABLE counters (
+  id      TINYINT NOT NULL PRIMARY KEY,
+  users   BIGINT  NOT NULL DEFAULT 0,
+  threads BIGINT  NOT NULL DEFAULT 0,
+  forums  BIGINT  NOT NULL DEFAULT 0,
+  posts   BIGINT  NOT NULL DEFAULT 0,
+  dirty   BOOLEAN NOT NULL DEFAULT TRUE
+)
+  DEFAULT CHARSET = utf8;
+
+CREATE TABLE sequence (
+  name    VARCHAR(50) NOT NULL PRIMARY KEY,
+  next_id BIGINT      NOT NULL
+)
+  DEFAULT CHARSET = utf8;
+
+DELIMITER //
+
+CREATE PROCEDURE create_post(p_id INT, p_user INT, p_forum INT, p_thread INT, p_parent INT, p_message TEXT,
+                             p_date DATETIME, p_approved BOOLEAN, p_highlighted BOOLEAN, p_edited BOOLEAN,
+                             p_spam BOOLEAN, p_deleted BOOLEAN)
+  BEGIN
+    DECLARE v_own BOOLEAN DEFAULT @@autocommit;
+    DECLARE v_epoch INT DEFAULT NULL;
+    DECLARE v_root INT DEFAULT NULL;
+    DECLARE v_parent_thread INT DEFAULT NULL;
+    DECLARE v_path VARBINARY(760) DEFAULT NULL;
+    DECLARE EXIT HANDLER FOR SQLEXCEPTION
+    BEGIN
+      IF v_own THEN
+        ROLLBACK;
+      ELSE
+        ROLLBACK TO SAVEPOINT create_post;
+      END IF;
+      RESIGNAL;
+    END;
+    IF v_own THEN
+      START TRANSACTION;
+    ELSE
+      SAVEPOINT create_post;
+    END IF;
+    IF p_deleted THEN
+      SELECT epoch INTO v_epoch FROM thread WHERE id = p_thread;
+    END IF;
+    IF p_parent IS NULL THEN
+      SET v_root = p_id, v_path = '';
+    ELSE
+      SELECT thread_id, root_id, path INTO v_parent_thread, v_root, v_path FROM post WHERE id = p_parent;
+      IF v_root IS NULL OR v_parent_thread <> p_thread THEN
+        SIGNAL SQLSTATE '45003' SET MESSAGE_TEXT = 'parent post not found in thread';
+      END IF;
+      IF LENGTH(v_path) >= 760 THEN
+        SIGNAL SQLSTATE '45003' SET MESSAGE_TEXT = 'replies nested too deep';
+      END IF;
+    END IF;
+    INSERT INTO post (id, user_id, message, forum_id, thread_id, parent, root_id, root_desc, path, creation_time,
+                      isApproved, isHighlighted, isEdited, isSpam, isDeleted, deleted_epoch)
+    VALUES (p_id, p_user, p_message, p_forum, p_thread, p_parent, v_root, -v_root,
+            CONCAT(v_path, UNHEX(LPAD(HEX(p_id), 8, '0'))), p_date, p_approved, p_highlighted, p_edited, p_spam,
+            p_deleted, COALESCE(v_epoch, 0));
+    INSERT IGNORE INTO forum_users (forum_id, user_name, user_id)
+      SELECT p_forum, name, id FROM user_profile WHERE id = p_user;
+    IF v_own THEN
+      COMMIT;
+    ELSE
+      RELEASE SAVEPOINT create_post;
+    END IF;
+  END //
+
+DELIMITER ;
\ No newline at end of file
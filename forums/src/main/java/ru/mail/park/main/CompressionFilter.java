@@ -0,0 +1,326 @@
+package ru.mail.park.main;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.UrlPathHelper;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gzips responses for clients that accept it. Paths matching an always pattern are compressed from the first byte,
+ * paths matching a never pattern are passed through, and everything else is buffered up to minSize bytes and only
+ * compressed once it grows past that.
+ */
+@Component
+public class CompressionFilter extends OncePerRequestFilter {
+    private static final AntPathMatcher MATCHER = new AntPathMatcher();
+    private static final UrlPathHelper PATH_HELPER = new UrlPathHelper();
+    private static final int GZIP_BUFFER_SIZE = 8192;
+
+    private final boolean enabled;
+    private final int minSize;
+    private final String[] always;
+    private final String[] never;
+    private final LongAdder compressed = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder nanos = new LongAdder();
+
+    public CompressionFilter(@Value("${forums.compression.enabled:true}") boolean enabled,
+                             @Value("${forums.compression.min-size:4096}") int minSize,
+                             @Value("${forums.compression.always:}") String[] always,
+                             @Value("${forums.compression.never:}") String[] never) {
+        this.enabled = enabled;
+        this.minSize = minSize;
+        this.always = always;
+        this.never = never;
+    }
+
+    public Stats stats() {
+        return new Stats(compressed.sum(), skipped.sum(), bytesIn.sum(), bytesOut.sum(), nanos.sum());
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        final String path = PATH_HELPER.getPathWithinApplication(request);
+        if (!enabled || !acceptsGzip(request) || "HEAD".equals(request.getMethod()) || matches(never, path)) {
+            chain.doFilter(request, response);
+            return;
+        }
+        final CompressingResponse wrapper = new CompressingResponse(response, matches(always, path) ? 0 : minSize);
+        try {
+            chain.doFilter(request, wrapper);
+        } finally {
+            wrapper.finish();
+        }
+    }
+
+    private static boolean acceptsGzip(HttpServletRequest request) {
+        final String accept = request.getHeader("Accept-Encoding");
+        return accept != null && accept.contains("gzip");
+    }
+
+    private static boolean matches(String[] patterns, String path) {
+        for (String pattern : patterns) {
+            if (MATCHER.match(pattern.trim(), path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private final class CompressingResponse extends HttpServletResponseWrapper {
+        private final int threshold;
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        private final CountingStream counted = new CountingStream();
+        private GZIPOutputStream gzip;
+        private ServletOutputStream stream;
+        private PrintWriter writer;
+        private boolean finished;
+        private long written;
+
+        private CompressingResponse(HttpServletResponse response, int threshold) {
+            super(response);
+            this.threshold = threshold;
+            response.addHeader("Vary", "Accept-Encoding");
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (writer != null) {
+                throw new IllegalStateException("getWriter() has already been called");
+            }
+            if (stream == null) {
+                stream = new Stream();
+            }
+            return stream;
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if (writer == null) {
+                if (stream != null) {
+                    throw new IllegalStateException("getOutputStream() has already been called");
+                }
+                stream = new Stream();
+                writer = new PrintWriter(new OutputStreamWriter(stream, getCharacterEncoding()));
+            }
+            return writer;
+        }
+
+        @Override
+        public void setContentLength(int length) {
+        }
+
+        @Override
+        public void setContentLengthLong(long length) {
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            if (writer != null) {
+                writer.flush();
+            }
+            if (gzip != null) {
+                gzip.flush();
+                super.flushBuffer();
+            }
+        }
+
+        @Override
+        public void resetBuffer() {
+            if (gzip != null) {
+                throw new IllegalStateException("Compressed output has already been written");
+            }
+            super.resetBuffer();
+            buffer.reset();
+            written = 0;
+        }
+
+        @Override
+        public void reset() {
+            if (gzip != null) {
+                throw new IllegalStateException("Compressed output has already been written");
+            }
+            super.reset();
+            buffer.reset();
+            written = 0;
+            addHeader("Vary", "Accept-Encoding");
+        }
+
+        private void write(byte[] bytes, int offset, int length) throws IOException {
+            written += length;
+            if (gzip == null) {
+                if (written <= threshold) {
+                    buffer.write(bytes, offset, length);
+                    return;
+                }
+                if (isCommitted() || getHeader("Content-Encoding") != null) {
+                    drain();
+                    getResponse().getOutputStream().write(bytes, offset, length);
+                    return;
+                }
+                setHeader("Content-Encoding", "gzip");
+                counted.target = getResponse().getOutputStream();
+                gzip = new GZIPOutputStream(counted, GZIP_BUFFER_SIZE, true);
+                compress(buffer.toByteArray(), 0, buffer.size());
+                buffer.reset();
+            }
+            compress(bytes, offset, length);
+        }
+
+        private void compress(byte[] bytes, int offset, int length) throws IOException {
+            final long start = System.nanoTime();
+            gzip.write(bytes, offset, length);
+            nanos.add(System.nanoTime() - start);
+        }
+
+        private void drain() throws IOException {
+            if (buffer.size() > 0) {
+                getResponse().getOutputStream().write(buffer.toByteArray());
+                buffer.reset();
+            }
+        }
+
+        private void finish() throws IOException {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            if (writer != null) {
+                writer.flush();
+            }
+            if (gzip == null) {
+                if (!isCommitted() && buffer.size() > 0) {
+                    getResponse().setContentLength(buffer.size());
+                }
+                drain();
+                skipped.increment();
+                return;
+            }
+            final long start = System.nanoTime();
+            gzip.finish();
+            nanos.add(System.nanoTime() - start);
+            compressed.increment();
+            bytesIn.add(written);
+            bytesOut.add(counted.count);
+        }
+
+        private final class Stream extends ServletOutputStream {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] bytes, int offset, int length) throws IOException {
+                CompressingResponse.this.write(bytes, offset, length);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                if (gzip != null) {
+                    gzip.flush();
+                }
+            }
+
+            @Override
+            public boolean isReady() {
+                try {
+                    return getResponse().getOutputStream().isReady();
+                } catch (IOException e) {
+                    return false;
+                }
+            }
+
+            @Override
+            public void setWriteListener(WriteListener listener) {
+                try {
+                    getResponse().getOutputStream().setWriteListener(listener);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+    }
+
+    private static final class CountingStream extends OutputStream {
+        private ServletOutputStream target;
+        private long count;
+
+        @Override
+        public void write(int b) throws IOException {
+            target.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            target.write(bytes, offset, length);
+            count += length;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            target.flush();
+        }
+    }
+
+    @SuppressWarnings("unused")
+    public static final class Stats {
+        private final long compressed;
+        private final long skipped;
+        private final long bytesIn;
+        private final long bytesOut;
+        private final long nanos;
+
+        private Stats(long compressed, long skipped, long bytesIn, long bytesOut, long nanos) {
+            this.compressed = compressed;
+            this.skipped = skipped;
+            this.bytesIn = bytesIn;
+            this.bytesOut = bytesOut;
+            this.nanos = nanos;
+        }
+
+        public long getCompressed() {
+            return compressed;
+        }
+
+        public long getSkipped() {
+            return skipped;
+        }
+
+        public long getBytesIn() {
+            return bytesIn;
+        }
+
+        public long getBytesOut() {
+            return bytesOut;
+        }
+
+        public double getRatio() {
+            return bytesOut > 0 ? (double) bytesIn / bytesOut : 0;
+        }
+
+        public double getMillis() {
+            return nanos / 1e6;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package ru.mail.park.main;
+
+import java.io.*;
+import java.util.Base64;
+
+/**
+ * Opaque keyset pagination token holding the sort key of the last row of a page.
+ */
+public final class Cursor {
+    private static final int NULL = 0;
+    private static final int INT = 1;
+    private static final int STRING = 2;
+    private static final int BYTES = 3;
+
+    private Cursor() {
+    }
+
+    public static String encode(Object... keys) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(keys.length);
+            for (Object key : keys) {
+                if (key == null) {
+                    out.writeByte(NULL);
+                } else if (key instanceof Integer) {
+                    out.writeByte(INT);
+                    out.writeInt((Integer) key);
+                } else if (key instanceof byte[]) {
+                    out.writeByte(BYTES);
+                    out.writeShort(((byte[]) key).length);
+                    out.write((byte[]) key);
+                } else {
+                    out.writeByte(STRING);
+                    out.writeUTF(key.toString());
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes.toByteArray());
+    }
+
+    /**
+     * Decodes a cursor and checks that its keys match the given kinds, so a token issued by another endpoint is
+     * rejected instead of being bound into the wrong keyset condition.
+     */
+    public static Object[] decode(String cursor, Key... kinds) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+                Base64.getUrlDecoder().decode(cursor)))) {
+            if (in.readByte() != kinds.length) {
+                throw new InvalidCursorException();
+            }
+            final Object[] keys = new Object[kinds.length];
+            for (int i = 0; i < kinds.length; i++) {
+                final int type = in.readByte();
+                if (type == INT) {
+                    keys[i] = in.readInt();
+                } else if (type == STRING) {
+                    keys[i] = in.readUTF();
+                } else if (type == BYTES) {
+                    final byte[] key = new byte[in.readUnsignedShort()];
+                    in.readFully(key);
+                    keys[i] = key;
+                } else if (type != NULL) {
+                    throw new InvalidCursorException();
+                }
+                if (!kinds[i].accepts(keys[i])) {
+                    throw new InvalidCursorException();
+                }
+            }
+            if (in.read() != -1) {
+                throw new InvalidCursorException();
+            }
+            return keys;
+        } catch (IOException | IllegalArgumentException e) {
+            throw new InvalidCursorException();
+        }
+    }
+
+    public enum Key {
+        ID(Integer.class, false),
+        DATE(String.class, false),
+        NAME(String.class, true),
+        PATH(byte[].class, false);
+
+        private final Class<?> type;
+        private final boolean nullable;
+
+        Key(Class<?> type, boolean nullable) {
+            this.type = type;
+            this.nullable = nullable;
+        }
+
+        private boolean accepts(Object key) {
+            return key == null ? nullable : type.isInstance(key);
+        }
+    }
+
+    public static class InvalidCursorException extends IllegalArgumentException {
+        private static final long serialVersionUID = 1L;
+    }
+}
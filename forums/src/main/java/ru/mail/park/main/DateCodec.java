@@ -0,0 +1,138 @@
+package ru.mail.park.main;
+
+import java.sql.Timestamp;
+import java.util.TimeZone;
+
+/**
+ * Formats and parses creation times as yyyy-MM-dd HH:mm:ss in the default time zone. Formatted strings are kept in
+ * a direct-mapped cache keyed by second, and parsing does plain digit arithmetic, so neither path touches Calendar
+ * or shares mutable state between threads.
+ */
+public final class DateCodec {
+    private static final int LENGTH = 19;
+    private static final int CACHE_SIZE = 4096;
+    private static final int SECONDS_PER_DAY = 86400;
+    private static final int MILLIS_PER_SECOND = 1000;
+    private static final long MILLIS_PER_DAY = 86400000L;
+    private static final TimeZone ZONE = TimeZone.getDefault();
+    private static final Entry[] CACHE = new Entry[CACHE_SIZE];
+
+    private DateCodec() {
+    }
+
+    public static String format(Timestamp timestamp) {
+        final long second = Math.floorDiv(timestamp.getTime(), MILLIS_PER_SECOND);
+        final int index = (int) (second & (CACHE_SIZE - 1));
+        final Entry cached = CACHE[index];
+        if (cached != null && cached.second == second) {
+            return cached.text;
+        }
+        final String text = format(second + ZONE.getOffset(second * MILLIS_PER_SECOND) / MILLIS_PER_SECOND);
+        CACHE[index] = new Entry(second, text);
+        return text;
+    }
+
+    public static Timestamp parse(String text) {
+        final long local = parseLocal(text);
+        if (local == Long.MIN_VALUE) {
+            return Timestamp.valueOf(text);
+        }
+        return new Timestamp(toInstant(local * MILLIS_PER_SECOND, ZONE));
+    }
+
+    /**
+     * Resolves a wall-clock time the way a lenient Calendar does: an ambiguous time takes the later instant and a
+     * time skipped by a forward transition is read with the offset in force before it.
+     */
+    static long toInstant(long wall, TimeZone zone) {
+        final int before = zone.getOffset(wall - MILLIS_PER_DAY);
+        final int after = zone.getOffset(wall + MILLIS_PER_DAY);
+        final boolean beforeValid = zone.getOffset(wall - before) == before;
+        final boolean afterValid = zone.getOffset(wall - after) == after;
+        if (beforeValid && afterValid) {
+            return wall - Math.min(before, after);
+        }
+        return afterValid ? wall - after : wall - before;
+    }
+
+    @SuppressWarnings("MagicNumber")
+    private static String format(long local) {
+        final long days = Math.floorDiv(local, SECONDS_PER_DAY);
+        final long secondOfDay = Math.floorMod(local, SECONDS_PER_DAY);
+        final long era = Math.floorDiv(days + 719468, 146097);
+        final int dayOfEra = (int) (days + 719468 - era * 146097);
+        final int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        final int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        final int shiftedMonth = (5 * dayOfYear + 2) / 153;
+        final int day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+        final int month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+        final long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        final char[] chars = new char[LENGTH];
+        digits(chars, 0, year, 4);
+        chars[4] = '-';
+        digits(chars, 5, month, 2);
+        chars[7] = '-';
+        digits(chars, 8, day, 2);
+        chars[10] = ' ';
+        digits(chars, 11, secondOfDay / 3600, 2);
+        chars[13] = ':';
+        digits(chars, 14, secondOfDay / 60 % 60, 2);
+        chars[16] = ':';
+        digits(chars, 17, secondOfDay % 60, 2);
+        return new String(chars);
+    }
+
+    private static void digits(char[] chars, int offset, long value, int count) {
+        for (int i = offset + count - 1; i >= offset; i--) {
+            chars[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    @SuppressWarnings({"MagicNumber", "OverlyComplexBooleanExpression"})
+    static long parseLocal(String text) {
+        if (text.length() != LENGTH || text.charAt(4) != '-' || text.charAt(7) != '-' || text.charAt(10) != ' ' ||
+                text.charAt(13) != ':' || text.charAt(16) != ':') {
+            return Long.MIN_VALUE;
+        }
+        final int year = number(text, 0, 4);
+        final int month = number(text, 5, 2);
+        final int day = number(text, 8, 2);
+        final int hour = number(text, 11, 2);
+        final int minute = number(text, 14, 2);
+        final int second = number(text, 17, 2);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31 || hour < 0 || hour > 23 || minute < 0 ||
+                minute > 59 || second < 0 || second > 59) {
+            return Long.MIN_VALUE;
+        }
+        final int shiftedYear = month <= 2 ? year - 1 : year;
+        final int era = Math.floorDiv(shiftedYear, 400);
+        final int yearOfEra = shiftedYear - era * 400;
+        final int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        final int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        final long days = era * 146097L + dayOfEra - 719468;
+        return days * SECONDS_PER_DAY + hour * 3600 + minute * 60 + second;
+    }
+
+    private static int number(String text, int offset, int count) {
+        int value = 0;
+        for (int i = offset; i < offset + count; i++) {
+            final char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + c - '0';
+        }
+        return value;
+    }
+
+    private static final class Entry {
+        private final long second;
+        private final String text;
+
+        private Entry(long second, String text) {
+            this.second = second;
+            this.text = text;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package ru.mail.park.main;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Per-id counter deltas accumulated in memory until a writer drains them. Each id holds a fixed number of
+ * counters, so one drained entry maps to one row update. Drained deltas stay in flight, and are still counted by
+ * {@link #get(int)}, until the writer calls {@link #complete(boolean)}: a commit drops them, anything else folds them
+ * back into the buffer.
+ */
+public class DeltaBuffer {
+    private static final int STRIPES = 64;
+
+    private final int width;
+    private final Object[] locks = new Object[STRIPES];
+    private final List<Map<Integer, int[]>> deltas = new ArrayList<>(STRIPES);
+    private final List<Map<Integer, int[]>> inFlight = new ArrayList<>(STRIPES);
+    private final AtomicInteger size = new AtomicInteger();
+
+    public DeltaBuffer(int width) {
+        this.width = width;
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new Object();
+            deltas.add(new HashMap<>());
+            inFlight.add(new HashMap<>());
+        }
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    public int add(int id, int counter, int delta) {
+        final int stripe = stripe(id);
+        synchronized (locks[stripe]) {
+            pending(stripe, id)[counter] += delta;
+        }
+        return size.get();
+    }
+
+    public void update(int id, Consumer<int[]> change) {
+        final int stripe = stripe(id);
+        synchronized (locks[stripe]) {
+            final int[] values = deltas.get(stripe).get(id);
+            if (values != null) {
+                change.accept(values);
+            }
+        }
+    }
+
+    public int[] get(int id) {
+        final int stripe = stripe(id);
+        synchronized (locks[stripe]) {
+            final int[] values = deltas.get(stripe).get(id);
+            final int[] flushing = inFlight.get(stripe).get(id);
+            if (flushing == null) {
+                return values != null ? values.clone() : null;
+            }
+            final int[] sum = flushing.clone();
+            if (values != null) {
+                for (int i = 0; i < width; i++) {
+                    sum[i] += values[i];
+                }
+            }
+            return sum;
+        }
+    }
+
+    public Set<Integer> ids() {
+        final Set<Integer> ids = new HashSet<>();
+        for (int i = 0; i < STRIPES; i++) {
+            synchronized (locks[i]) {
+                ids.addAll(deltas.get(i).keySet());
+            }
+        }
+        return ids;
+    }
+
+    public Map<Integer, int[]> drain() {
+        final Map<Integer, int[]> drained = new HashMap<>();
+        for (int i = 0; i < STRIPES; i++) {
+            synchronized (locks[i]) {
+                for (Map.Entry<Integer, int[]> entry : deltas.get(i).entrySet()) {
+                    drained.put(entry.getKey(), entry.getValue().clone());
+                    merge(inFlight.get(i), entry.getKey(), entry.getValue());
+                }
+                size.addAndGet(-deltas.get(i).size());
+                deltas.set(i, new HashMap<>());
+            }
+        }
+        return drained;
+    }
+
+    public Map<Integer, int[]> drain(Collection<Integer> ids) {
+        final Map<Integer, int[]> drained = new HashMap<>();
+        for (int id : ids) {
+            final int stripe = stripe(id);
+            synchronized (locks[stripe]) {
+                final int[] values = deltas.get(stripe).remove(id);
+                if (values != null) {
+                    size.decrementAndGet();
+                    drained.put(id, values.clone());
+                    merge(inFlight.get(stripe), id, values);
+                }
+            }
+        }
+        return drained;
+    }
+
+    /**
+     * Ends the flush of everything drained so far. Committed deltas are dropped, since the rows now hold them;
+     * otherwise they go back into the buffer for the next flush.
+     */
+    public void complete(boolean committed) {
+        for (int i = 0; i < STRIPES; i++) {
+            synchronized (locks[i]) {
+                if (!committed) {
+                    for (Map.Entry<Integer, int[]> entry : inFlight.get(i).entrySet()) {
+                        final int[] values = pending(i, entry.getKey());
+                        for (int counter = 0; counter < width; counter++) {
+                            values[counter] += entry.getValue()[counter];
+                        }
+                    }
+                }
+                inFlight.set(i, new HashMap<>());
+            }
+        }
+    }
+
+    public void clear() {
+        drain();
+        complete(true);
+    }
+
+    private int[] pending(int stripe, int id) {
+        int[] values = deltas.get(stripe).get(id);
+        if (values == null) {
+            values = new int[width];
+            deltas.get(stripe).put(id, values);
+            size.incrementAndGet();
+        }
+        return values;
+    }
+
+    private void merge(Map<Integer, int[]> target, int id, int[] values) {
+        final int[] merged = target.get(id);
+        if (merged == null) {
+            target.put(id, values);
+            return;
+        }
+        for (int i = 0; i < width; i++) {
+            merged[i] += values[i];
+        }
+    }
+
+    private static int stripe(int id) {
+        return id & (STRIPES - 1);
+    }
+}
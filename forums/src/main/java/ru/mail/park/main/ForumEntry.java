@@ -0,0 +1,34 @@
+package ru.mail.park.main;
+
+/**
+ * Immutable forum row as kept by {@link ForumRegistry}.
+ */
+public final class ForumEntry {
+    private final int id;
+    private final String name;
+    private final String shortName;
+    private final int userId;
+
+    public ForumEntry(int id, String name, String shortName, int userId) {
+        this.id = id;
+        this.name = name;
+        this.shortName = shortName;
+        this.userId = userId;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getShortName() {
+        return shortName;
+    }
+
+    public int getUserId() {
+        return userId;
+    }
+}
@@ -0,0 +1,56 @@
+package ru.mail.park.main;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Every forum indexed by id and by short name. Forums are never updated or deleted one by one, so the registry is
+ * filled once from the loader and then only grows.
+ */
+public class ForumRegistry {
+    private final Supplier<Collection<ForumEntry>> loader;
+    private final Map<Integer, ForumEntry> byId = new ConcurrentHashMap<>();
+    private final Map<String, ForumEntry> byShortName = new ConcurrentHashMap<>();
+    private volatile boolean loaded;
+
+    public ForumRegistry(Supplier<Collection<ForumEntry>> loader) {
+        this.loader = loader;
+    }
+
+    public synchronized void load() {
+        if (loaded) {
+            return;
+        }
+        for (ForumEntry entry : loader.get()) {
+            put(entry);
+        }
+        loaded = true;
+    }
+
+    public synchronized void clear() {
+        byId.clear();
+        byShortName.clear();
+        loaded = true;
+    }
+
+    public void put(ForumEntry entry) {
+        byId.put(entry.getId(), entry);
+        byShortName.put(entry.getShortName(), entry);
+    }
+
+    public ForumEntry get(int id) {
+        if (!loaded) {
+            load();
+        }
+        return byId.get(id);
+    }
+
+    public ForumEntry get(String shortName) {
+        if (!loaded) {
+            load();
+        }
+        return byShortName.get(shortName);
+    }
+}
@@ -1,58 +1,220 @@
 package ru.mail.park.main;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.dao.DataAccessException;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.dao.DuplicateKeyException;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.http.ResponseEntity;
 import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+import org.springframework.jdbc.UncategorizedSQLException;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.jdbc.support.KeyHolder;
 import org.springframework.jdbc.support.rowset.SqlRowSet;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.util.StringUtils;
 import org.springframework.web.bind.MissingServletRequestParameterException;
 import org.springframework.web.bind.annotation.*;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.Statement;
-import java.sql.Timestamp;
 import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 
 @CrossOrigin
 @RestController
 public class GodController {
+    private static final int USER_IDENTITIES_CAPACITY = 1 << 20;
+    private static final int THREADS_CAPACITY = 1 << 18;
+    private static final int IMPORT_BATCH_SIZE = 1000;
+    private static final int ID_BLOCK_SIZE = 1000;
+    private static final long DELTA_FLUSH_INTERVAL = 50;
+    private static final int DELTA_FLUSH_THRESHOLD = 10000;
+    private static final int LIKES = 0;
+    private static final int DISLIKES = 1;
+    private static final int POSTS = 0;
+    private static final int ALL_POSTS = 1;
+    private static final String INCORRECT_STATE = "45003";
+    private static final IdentityCache USER_IDENTITIES = new IdentityCache(USER_IDENTITIES_CAPACITY);
+    private static final UserCache USERS = new UserCache(USER_IDENTITIES_CAPACITY);
+    private static final ForumRegistry FORUMS = new ForumRegistry(GodController::forums);
+    private static final ThreadCache THREADS = new ThreadCache(THREADS_CAPACITY);
+    private static final StatusCounters COUNTERS = new StatusCounters();
+    private static final DeltaBuffer POST_VOTES = new DeltaBuffer(2);
+    private static final DeltaBuffer THREAD_VOTES = new DeltaBuffer(2);
+    private static final DeltaBuffer THREAD_POSTS = new DeltaBuffer(2);
+    private static final ListQuery USER_POSTS_QUERY = ListQuery.byTime("SELECT * FROM post WHERE user_id = ? ");
+    private static final ListQuery FORUM_POSTS_QUERY = ListQuery.byTime("SELECT * FROM post WHERE forum_id = ? ");
+    private static final ListQuery THREAD_POSTS_QUERY = ListQuery.byTime("SELECT * FROM post WHERE thread_id = ? ");
+    private static final ListQuery USER_THREADS_QUERY = ListQuery.byTime("SELECT * FROM thread WHERE user_id = ? ");
+    private static final ListQuery FORUM_THREADS_QUERY = ListQuery.byTime("SELECT * FROM thread WHERE forum_id = ? ");
+    private static final ListQuery FOLLOWERS_QUERY = ListQuery.byName("SELECT follower AS id FROM following " +
+            "WHERE followee = ? ", "follower_name", "follower");
+    private static final ListQuery FOLLOWING_QUERY = ListQuery.byName("SELECT followee AS id FROM following " +
+            "WHERE follower = ? ", "followee_name", "followee");
+    private static final ListQuery FORUM_USERS_QUERY = ListQuery.byName("SELECT user_id AS id FROM forum_users " +
+            "WHERE forum_id = ? ", "user_name", "user_id");
+    private static final ListQuery TREE_POSTS_QUERY = new ListQuery("SELECT * FROM post WHERE thread_id = ? ",
+            "AND creation_time >= ? ", new String[]{"AND path > ? "},
+            new String[]{"AND (root_desc > ? OR root_desc = ? AND path > ?) "}, "ORDER BY path",
+            "ORDER BY root_desc, path");
+    private static final ListQuery ROOTS_QUERY = new ListQuery("SELECT id FROM post WHERE thread_id = ? AND " +
+            "parent IS NULL ", "AND creation_time >= ? ", new String[]{"AND id > ? "}, new String[]{"AND id < ? "},
+            "ORDER BY id ASC", "ORDER BY id DESC");
+    private static final int ROOT_POSTS_BUCKETS = 11;
+    private static final Cursor.Key[] TIME_CURSOR = {Cursor.Key.DATE, Cursor.Key.ID};
+    private static final Cursor.Key[] NAME_CURSOR = {Cursor.Key.NAME, Cursor.Key.ID};
+    private static final String[] ROOT_POSTS_QUERIES = rootPostsQueries();
     private static JdbcTemplate jdbcTemplate;
 
-    public GodController(JdbcTemplate jdbcTemplate) {
+    private final ObjectMapper mapper;
+    private final CompressionFilter compressionFilter;
+    private final TransactionTemplate transactionTemplate;
+    private volatile ImportProgress importProgress;
+    private final Object deltaLock = new Object();
+    private final AtomicBoolean deltaFlushRequested = new AtomicBoolean();
+    private final GroupCommitQueue<PostCreateRequest, ResponseEntity> postWriter;
+    private final IdAllocator userIds;
+    private final IdAllocator threadIds;
+    private final IdAllocator postIds;
+    private final int postFetchSize;
+    private final int threadFetchSize;
+    private final ScheduledExecutorService deltaFlusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "delta-flusher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public GodController(JdbcTemplate jdbcTemplate, ObjectMapper mapper, CompressionFilter compressionFilter,
+                         PlatformTransactionManager transactionManager, DataSourceProperties dataSourceProperties,
+                         @Value("${forums.post.group-commit.enabled:false}") boolean groupCommit,
+                         @Value("${forums.post.group-commit.batch-size:64}") int groupCommitBatchSize,
+                         @Value("${forums.post.group-commit.max-wait:2}") long groupCommitMaxWait,
+                         @Value("${forums.post.group-commit.timeout:5000}") long groupCommitTimeout,
+                         @Value("${forums.fetch-size.posts:100}") int postFetchSize,
+                         @Value("${forums.fetch-size.threads:100}") int threadFetchSize) {
         GodController.jdbcTemplate = jdbcTemplate;
+        this.mapper = mapper;
+        this.compressionFilter = compressionFilter;
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        userIds = idAllocator(dataSourceProperties, "user_profile");
+        threadIds = idAllocator(dataSourceProperties, "thread");
+        postIds = idAllocator(dataSourceProperties, "post");
+        postWriter = groupCommit ? new GroupCommitQueue<>("post-writer", groupCommitBatchSize, groupCommitMaxWait,
+                groupCommitTimeout, this::writePosts) : null;
+        this.postFetchSize = postFetchSize;
+        this.threadFetchSize = threadFetchSize;
+    }
+
+    @EventListener(ContextRefreshedEvent.class)
+    public void loadForums() {
+        try {
+            FORUMS.load();
+            COUNTERS.load();
+        } catch (DataAccessException ignore) {
+        }
+    }
+
+    @PostConstruct
+    public void start() {
+        deltaFlusher.scheduleWithFixedDelay(this::flushDeltas, DELTA_FLUSH_INTERVAL, DELTA_FLUSH_INTERVAL,
+                TimeUnit.MILLISECONDS);
+        if (postWriter != null) {
+            postWriter.start();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (postWriter != null) {
+            postWriter.stop();
+        }
+        deltaFlusher.shutdownNow();
+        flushDeltas();
+        try {
+            COUNTERS.save();
+        } catch (DataAccessException ignore) {
+        }
+        userIds.close();
+        threadIds.close();
+        postIds.close();
+    }
+
+    private static IdAllocator idAllocator(DataSourceProperties properties, String table) {
+        final SingleConnectionDataSource dataSource = new SingleConnectionDataSource(properties.determineUrl(),
+                properties.determineUsername(), properties.determinePassword(), true);
+        dataSource.setDriverClassName(properties.determineDriverClassName());
+        return new IdAllocator(dataSource, table, ID_BLOCK_SIZE);
     }
 
     @Transactional
     @RequestMapping(path = "db/api/clear", method = RequestMethod.POST)
     public ResponseEntity clear() {
-        jdbcTemplate.execute("SET FOREIGN_KEY_CHECKS = 0");
-        jdbcTemplate.execute("TRUNCATE TABLE user_profile;");
-        jdbcTemplate.execute("TRUNCATE TABLE forum;");
-        jdbcTemplate.execute("TRUNCATE TABLE thread;");
-        jdbcTemplate.execute("TRUNCATE TABLE post;");
-        jdbcTemplate.execute("TRUNCATE TABLE following;");
-        jdbcTemplate.execute("TRUNCATE TABLE subscription;");
-        jdbcTemplate.execute("SET FOREIGN_KEY_CHECKS = 1");
+        synchronized (deltaLock) {
+            jdbcTemplate.execute("SET FOREIGN_KEY_CHECKS = 0");
+            jdbcTemplate.execute("TRUNCATE TABLE user_profile;");
+            jdbcTemplate.execute("TRUNCATE TABLE forum;");
+            jdbcTemplate.execute("TRUNCATE TABLE thread;");
+            jdbcTemplate.execute("TRUNCATE TABLE post;");
+            jdbcTemplate.execute("TRUNCATE TABLE following;");
+            jdbcTemplate.execute("TRUNCATE TABLE subscription;");
+            jdbcTemplate.execute("TRUNCATE TABLE forum_users;");
+            jdbcTemplate.execute("TRUNCATE TABLE sequence;");
+            jdbcTemplate.execute("SET FOREIGN_KEY_CHECKS = 1");
+            userIds.reset();
+            threadIds.reset();
+            postIds.reset();
+            USER_IDENTITIES.clear();
+            USERS.clear();
+            FORUMS.clear();
+            THREADS.clear();
+            COUNTERS.clear();
+            POST_VOTES.clear();
+            THREAD_VOTES.clear();
+            THREAD_POSTS.clear();
+        }
         return ResponseEntity.ok(ResponseBody.ok());
     }
 
-    @Transactional
     @RequestMapping(path = "db/api/status", method = RequestMethod.GET)
     public ResponseEntity status() {
-        final int user = jdbcTemplate.queryForObject("SELECT count(*) FROM user_profile;", Integer.class);
-        final int thread = jdbcTemplate.queryForObject("SELECT count(*) FROM thread;", Integer.class);
-        final int forum = jdbcTemplate.queryForObject("SELECT count(*) FROM forum;", Integer.class);
-        final int post = jdbcTemplate.queryForObject("SELECT count(*) FROM post;", Integer.class);
-        return ResponseEntity.ok(ResponseBody.ok(new StatusResponse(user, thread, forum, post)));
+        return ResponseEntity.ok(ResponseBody.ok(COUNTERS.get()));
+    }
+
+    @RequestMapping(path = "db/api/compression", method = RequestMethod.GET)
+    public ResponseEntity compression() {
+        return ResponseEntity.ok(ResponseBody.ok(compressionFilter.stats()));
     }
 
     @RequestMapping(path = "db/api/user/create", method = RequestMethod.POST)
@@ -60,24 +222,21 @@ public class GodController {
         if (StringUtils.isEmpty(request.email)) {
             return ResponseEntity.ok(ResponseBody.invalid());
         }
-        final KeyHolder keyHolder = new GeneratedKeyHolder();
+        final int id = userIds.next();
+        final long stamp = WriteThroughCache.stamp();
         try {
-            jdbcTemplate.update(connection -> {
-                final PreparedStatement ps = connection.prepareStatement("INSERT INTO user_profile " +
-                        "(username, email, name, about, isAnonymous) VALUES (?, ?, ?, ?, ?);",
-                        Statement.RETURN_GENERATED_KEYS);
-                ps.setString(1, request.username);
-                ps.setString(2, request.email);
-                ps.setString(3, request.name);
-                ps.setString(4, request.about);
-                ps.setBoolean(5, request.isAnonymous);
-                return ps;
-            }, keyHolder);
+            jdbcTemplate.update("INSERT INTO user_profile (id, username, email, name, about, isAnonymous) VALUES " +
+                    "(?, ?, ?, ?, ?, ?);", id, request.username, request.email, request.name, request.about,
+                    request.isAnonymous);
         } catch (DuplicateKeyException e) {
             return ResponseEntity.ok(ResponseBody.userAlreadyExists());
         }
         final UserCreateResponse response = new UserCreateResponse();
-        response.id = keyHolder.getKey().intValue();
+        response.id = id;
+        USER_IDENTITIES.put(response.id, request.email);
+        COUNTERS.increment(COUNTERS.users);
+        afterCommit(() -> USERS.put(new UserAggregate(id, request.username, request.email, request.name,
+                request.about, request.isAnonymous), stamp));
         response.username = request.username;
         response.email = request.email;
         response.name = request.name;
@@ -97,16 +256,32 @@ public class GodController {
         if (id < 0) {
             return ResponseEntity.ok(ResponseBody.notFound());
         }
+        final KeyHolder keyHolder = new GeneratedKeyHolder();
+        int forumId;
         try {
-            jdbcTemplate.update("INSERT INTO forum (name, short_name, user_id) VALUES (?, ?, ?);",
-                    request.name, request.short_name, id);
-        } catch (DuplicateKeyException ignore) {
+            jdbcTemplate.update(connection -> {
+                final PreparedStatement ps = connection.prepareStatement("INSERT INTO forum " +
+                        "(name, short_name, user_id) VALUES (?, ?, ?);", Statement.RETURN_GENERATED_KEYS);
+                ps.setString(1, request.name);
+                ps.setString(2, request.short_name);
+                ps.setInt(3, id);
+                return ps;
+            }, keyHolder);
+            forumId = keyHolder.getKey().intValue();
+            final ForumEntry entry = new ForumEntry(forumId, request.name, request.short_name, id);
+            afterCommit(() -> FORUMS.put(entry));
+            COUNTERS.increment(COUNTERS.forums);
+        } catch (DuplicateKeyException e) {
+            final ForumEntry existing = FORUMS.get(request.short_name);
+            if (existing == null) {
+                return ResponseEntity.ok(ResponseBody.unknownError());
+            }
+            forumId = existing.getId();
         } catch (DataIntegrityViolationException e) {
             return ResponseEntity.ok(ResponseBody.incorrect());
         }
         final ForumDetails details = new ForumDetails();
-        details.id = jdbcTemplate.queryForObject("SELECT id FROM forum WHERE short_name = ?;", Integer.class,
-                request.short_name);
+        details.id = forumId;
         details.name = request.name;
         details.short_name = request.short_name;
         details.user = request.user;
@@ -126,29 +301,22 @@ public class GodController {
         if (user < 0 || forum < 0) {
             return ResponseEntity.ok(ResponseBody.notFound());
         }
-        final KeyHolder keyHolder = new GeneratedKeyHolder();
+        final int id = threadIds.next();
+        final long stamp = WriteThroughCache.stamp();
         try {
-            jdbcTemplate.update(connection -> {
-                final PreparedStatement ps = connection.prepareStatement("INSERT INTO " +
-                        "thread (forum_id, title, slug, message, user_id, creation_time, isClosed, isDeleted) VALUES " +
-                        "(?, ?, ?, ?, ?, ?, ?, ?);", Statement.RETURN_GENERATED_KEYS);
-                ps.setInt(1, forum);
-                ps.setString(2, request.title);
-                ps.setString(3, request.slug);
-                ps.setString(4, request.message);
-                ps.setInt(5, user);
-                ps.setTimestamp(6, Timestamp.valueOf(request.date));
-                ps.setBoolean(7, request.isClosed);
-                ps.setBoolean(8, request.isDeleted);
-                return ps;
-            }, keyHolder);
+            jdbcTemplate.update("INSERT INTO thread (id, forum_id, title, slug, message, user_id, creation_time, " +
+                    "isClosed, isDeleted) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?);", id, forum, request.title, request.slug,
+                    request.message, user, DateCodec.parse(request.date), request.isClosed, request.isDeleted);
         } catch (DataIntegrityViolationException e) {
             return ResponseEntity.ok(ResponseBody.incorrect());
         }
         final ThreadCreateResponse response = new ThreadCreateResponse();
         response.date = request.date;
         response.forum = request.forum;
-        response.id = keyHolder.getKey().intValue();
+        response.id = id;
+        afterCommit(() -> THREADS.put(new ThreadEntry(id, forum, user, request), stamp));
+        COUNTERS.increment(COUNTERS.threads);
+        addForumUser(forum, user);
         response.isClosed = request.isClosed;
         response.isDeleted = request.isDeleted;
         response.message = request.message;
@@ -158,60 +326,104 @@ public class GodController {
         return ResponseEntity.ok(ResponseBody.ok(response));
     }
 
-    @SuppressWarnings({"OverlyComplexBooleanExpression", "MagicNumber"})
-    @Transactional
     @RequestMapping(path = "db/api/post/create", method = RequestMethod.POST)
     public ResponseEntity createPost(@RequestBody PostCreateRequest request) {
+        if (postWriter != null) {
+            return postWriter.write(request);
+        }
+        return writePost(request);
+    }
+
+    private List<ResponseEntity> writePosts(List<PostCreateRequest> requests) {
+        return transactionTemplate.execute(status -> {
+            final List<ResponseEntity> responses = new ArrayList<>(requests.size());
+            for (PostCreateRequest request : requests) {
+                responses.add(writePost(request));
+            }
+            return responses;
+        });
+    }
+
+    @SuppressWarnings("OverlyComplexBooleanExpression")
+    private ResponseEntity writePost(PostCreateRequest request) {
         if (StringUtils.isEmpty(request.date) || StringUtils.isEmpty(request.forum) ||
                 StringUtils.isEmpty(request.user) || StringUtils.isEmpty(request.message) ||
                 request.thread == null) {
             return ResponseEntity.ok(ResponseBody.invalid());
         }
-        if (!request.isDeleted) {
-            jdbcTemplate.update("UPDATE thread SET posts = posts + 1 WHERE id = ?", request.thread);
-        }
         final int user = UserDetails.getId(request.user);
         final int forum = ForumDetails.getId(request.forum);
         if (user < 0 || forum < 0) {
             return ResponseEntity.ok(ResponseBody.notFound());
         }
-        final KeyHolder keyHolder = new GeneratedKeyHolder();
+        final int id = postIds.next();
         try {
-            jdbcTemplate.update(connection -> {
-                final PreparedStatement ps = connection.prepareStatement("INSERT INTO post " +
-                        "(user_id, message, forum_id, thread_id, parent, creation_time, isApproved, isHighlighted, " +
-                        "isEdited, isSpam, isDeleted) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?);",
-                        Statement.RETURN_GENERATED_KEYS);
-                ps.setInt(1, user);
-                ps.setString(2, request.message);
-                ps.setInt(3, forum);
-                ps.setInt(4, request.thread);
-                ps.setObject(5, request.parent);
-                ps.setTimestamp(6, Timestamp.valueOf(request.date));
-                ps.setBoolean(7, request.isApproved);
-                ps.setBoolean(8, request.isHighlighted);
-                ps.setBoolean(9, request.isEdited);
-                ps.setBoolean(10, request.isSpam);
-                ps.setBoolean(11, request.isDeleted);
-                return ps;
-            }, keyHolder);
+            jdbcTemplate.update("CALL create_post(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?);", id, user, forum,
+                    request.thread, request.parent, request.message, DateCodec.parse(request.date),
+                    request.isApproved, request.isHighlighted, request.isEdited, request.isSpam, request.isDeleted);
         } catch (DataIntegrityViolationException e) {
             return ResponseEntity.ok(ResponseBody.incorrect());
+        } catch (UncategorizedSQLException e) {
+            if (INCORRECT_STATE.equals(e.getSQLException().getSQLState())) {
+                return ResponseEntity.ok(ResponseBody.incorrect());
+            }
+            throw e;
         }
-        final PostCreateResponse response = new PostCreateResponse();
-        response.id = keyHolder.getKey().intValue();
-        response.user = request.user;
-        response.message = request.message;
-        response.forum = request.forum;
-        response.thread = request.thread;
-        response.parent = request.parent;
-        response.date = request.date;
-        response.isApproved = request.isApproved;
-        response.isHighlighted = request.isHighlighted;
-        response.isEdited = request.isEdited;
-        response.isSpam = request.isSpam;
-        response.isDeleted = request.isDeleted;
-        return ResponseEntity.ok(ResponseBody.ok(response));
+        addThreadPosts(request.thread, request.isDeleted ? 0 : 1, 1);
+        COUNTERS.increment(COUNTERS.posts);
+        return ResponseEntity.ok(ResponseBody.ok(new PostCreateResponse(id, request)));
+    }
+
+    @Transactional
+    @RequestMapping(path = "db/api/post/createBatch", method = RequestMethod.POST)
+    public ResponseEntity createPosts(@RequestBody PostCreateRequest[] requests) {
+        return ResponseEntity.ok(ResponseBody.ok(insertPosts(requests)));
+    }
+
+    @RequestMapping(path = "db/api/import", method = RequestMethod.POST)
+    public ResponseEntity importData(HttpServletRequest request) throws IOException {
+        final ImportProgress progress = new ImportProgress();
+        synchronized (this) {
+            if (importProgress != null && importProgress.running) {
+                return ResponseEntity.ok(ResponseBody.incorrect());
+            }
+            importProgress = progress;
+        }
+        try (BufferedReader reader = request.getReader()) {
+            String type = null;
+            final List<JsonNode> batch = new ArrayList<>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                progress.lines++;
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                final JsonNode node = mapper.readTree(line);
+                final String lineType = node.path("type").asText();
+                if (!lineType.equals(type) || batch.size() == IMPORT_BATCH_SIZE) {
+                    importBatch(type, batch, progress);
+                    batch.clear();
+                    type = lineType;
+                }
+                batch.add(node.path("data"));
+            }
+            importBatch(type, batch, progress);
+        } catch (IOException | RuntimeException e) {
+            progress.error = "line " + progress.lines + ": " + e.getMessage();
+            return ResponseEntity.ok(new ResponseBody(3, progress));
+        } finally {
+            progress.running = false;
+        }
+        return ResponseEntity.ok(ResponseBody.ok(progress));
+    }
+
+    @RequestMapping(path = "db/api/import", method = RequestMethod.GET)
+    public ResponseEntity importStatus() {
+        final ImportProgress progress = importProgress;
+        if (progress == null) {
+            return ResponseEntity.ok(ResponseBody.notFound());
+        }
+        return ResponseEntity.ok(ResponseBody.ok(progress));
     }
 
     @RequestMapping(path = "db/api/thread/subscribe", method = RequestMethod.POST)
@@ -230,6 +442,7 @@ public class GodController {
         } catch (DataIntegrityViolationException e) {
             return ResponseEntity.ok(ResponseBody.incorrect());
         }
+        USERS.update(id, user -> user.subscriptions.add(subscription.thread));
         return ResponseEntity.ok(ResponseBody.ok(subscription));
     }
 
@@ -243,10 +456,10 @@ public class GodController {
             return ResponseEntity.ok(ResponseBody.notFound());
         }
         jdbcTemplate.update("DELETE FROM subscription WHERE user_id = ? AND thread_id = ?;", id, subscription.thread);
+        USERS.update(id, user -> user.subscriptions.remove(subscription.thread));
         return ResponseEntity.ok(ResponseBody.ok(subscription));
     }
 
-    @Transactional
     @RequestMapping(path = "db/api/user/follow", method = RequestMethod.POST)
     public ResponseEntity follow(@RequestBody Following following) {
         if (StringUtils.isEmpty(following.follower) || StringUtils.isEmpty(following.followee)) {
@@ -258,11 +471,16 @@ public class GodController {
             return ResponseEntity.ok(ResponseBody.notFound());
         }
         try {
-            jdbcTemplate.update("INSERT INTO following (follower, followee) VALUES (?, ?);", follower, followee);
+            jdbcTemplate.update("INSERT INTO following (follower, followee, follower_name, followee_name) " +
+                    "VALUES (?, ?, (SELECT name FROM user_profile WHERE id = ?), " +
+                    "(SELECT name FROM user_profile WHERE id = ?));",
+                    follower, followee, follower, followee);
         } catch (DuplicateKeyException ignore) {
         } catch (DataIntegrityViolationException e) {
             return ResponseEntity.ok(ResponseBody.incorrect());
         }
+        USERS.update(follower, user -> user.following.add(followee));
+        USERS.update(followee, user -> user.followers.add(follower));
         final UserDetails details = UserDetails.get(follower);
         if (details == null) {
             return ResponseEntity.ok(ResponseBody.notFound());
@@ -270,7 +488,6 @@ public class GodController {
         return ResponseEntity.ok(ResponseBody.ok(details));
     }
 
-    @Transactional
     @RequestMapping(path = "db/api/user/unfollow", method = RequestMethod.POST)
     public ResponseEntity unfollow(@RequestBody Following following) {
         if (StringUtils.isEmpty(following.follower) || StringUtils.isEmpty(following.followee)) {
@@ -282,6 +499,8 @@ public class GodController {
             return ResponseEntity.ok(ResponseBody.notFound());
         }
         jdbcTemplate.update("DELETE FROM following WHERE follower = ? AND followee = ?;", follower, followee);
+        USERS.update(follower, user -> user.following.remove(followee));
+        USERS.update(followee, user -> user.followers.remove(follower));
         final UserDetails details = UserDetails.get(follower);
         if (details == null) {
             return ResponseEntity.ok(ResponseBody.notFound());
@@ -297,8 +516,18 @@ public class GodController {
             return ResponseEntity.ok(ResponseBody.invalid());
         }
         final int id = UserDetails.getId(request.user);
+        if (id < 0) {
+            return ResponseEntity.ok(ResponseBody.notFound());
+        }
         jdbcTemplate.update("UPDATE user_profile SET about = ?, name = ? WHERE id = ?;", request.about, request.name,
                 id);
+        jdbcTemplate.update("UPDATE forum_users SET user_name = ? WHERE user_id = ?;", request.name, id);
+        jdbcTemplate.update("UPDATE following SET follower_name = ? WHERE follower = ?;", request.name, id);
+        jdbcTemplate.update("UPDATE following SET followee_name = ? WHERE followee = ?;", request.name, id);
+        USERS.update(id, user -> {
+            user.about = request.about;
+            user.name = request.name;
+        });
         final UserDetails details = UserDetails.get(id);
         if (details == null) {
             return ResponseEntity.ok(ResponseBody.notFound());
@@ -369,7 +598,8 @@ public class GodController {
     public ResponseEntity listFollowers(@RequestParam(name = "user") String user,
                                         @RequestParam(name = "limit", required = false) Integer limit,
                                         @RequestParam(name = "order", required = false) String order,
-                                        @RequestParam(name = "since_id", required = false) Integer since) {
+                                        @RequestParam(name = "since_id", required = false) Integer since,
+                                        @RequestParam(name = "cursor", required = false) String cursor) {
         if (StringUtils.isEmpty(user)) {
             return ResponseEntity.ok(ResponseBody.incorrect());
         }
@@ -380,22 +610,11 @@ public class GodController {
             return ResponseEntity.ok(ResponseBody.incorrect());
         }
         final int followee = UserDetails.getId(user);
-        String query = "SELECT * FROM user_profile JOIN following ON user_profile.id = following.follower WHERE " +
-                "followee = ? ";
-        if (since != null) {
-            query += "AND id >= ? ";
-        }
-        query += "ORDER BY name " + order;
-        if (limit != null) {
-            query += " LIMIT ?";
-        }
-        query += ';';
-        final SqlRowSet set = listQuery(query, followee, limit, since);
-        final List<UserDetails> followers = new ArrayList<>();
-        while (set.next()) {
-            followers.add(new UserDetails(set));
-        }
-        return ResponseEntity.ok(ResponseBody.ok(followers.toArray()));
+        final Object[] after = cursor != null ? Cursor.decode(cursor, NAME_CURSOR) : null;
+        final String query = FOLLOWERS_QUERY.get("desc".equalsIgnoreCase(order), since != null, nameKeyset(after),
+                limit != null);
+        final Object[] users = UserDetails.list(listIds(query, followee, limit, since, nameKeysetArgs(after)));
+        return ResponseEntity.ok(ResponseBody.ok(users, userCursor(users, limit)));
     }
 
     @Transactional
@@ -403,7 +622,8 @@ public class GodController {
     public ResponseEntity listFollowing(@RequestParam(name = "user") String user,
                                         @RequestParam(name = "limit", required = false) Integer limit,
                                         @RequestParam(name = "order", required = false) String order,
-                                        @RequestParam(name = "since_id", required = false) Integer since) {
+                                        @RequestParam(name = "since_id", required = false) Integer since,
+                                        @RequestParam(name = "cursor", required = false) String cursor) {
         if (StringUtils.isEmpty(user)) {
             return ResponseEntity.ok(ResponseBody.incorrect());
         }
@@ -414,31 +634,20 @@ public class GodController {
             return ResponseEntity.ok(ResponseBody.incorrect());
         }
         final int follower = UserDetails.getId(user);
-        String query = "SELECT * FROM user_profile JOIN following ON user_profile.id = following.followee WHERE " +
-                "follower = ? ";
-        if (since != null) {
-            query += "AND id >= ? ";
-        }
-        query += "ORDER BY name " + order;
-        if (limit != null) {
-            query += " LIMIT ?";
-        }
-        query += ';';
-        final SqlRowSet set = listQuery(query, follower, limit, since);
-        final List<UserDetails> followees = new ArrayList<>();
-        while (set.next()) {
-            followees.add(new UserDetails(set));
-        }
-        return ResponseEntity.ok(ResponseBody.ok(followees.toArray()));
+        final Object[] after = cursor != null ? Cursor.decode(cursor, NAME_CURSOR) : null;
+        final String query = FOLLOWING_QUERY.get("desc".equalsIgnoreCase(order), since != null, nameKeyset(after),
+                limit != null);
+        final Object[] users = UserDetails.list(listIds(query, follower, limit, since, nameKeysetArgs(after)));
+        return ResponseEntity.ok(ResponseBody.ok(users, userCursor(users, limit)));
     }
 
     @SuppressWarnings("OverlyComplexMethod")
-    @Transactional
     @RequestMapping(path = "db/api/user/listPosts", method = RequestMethod.GET)
     public ResponseEntity listUserPosts(@RequestParam(name = "user") String user,
                                         @RequestParam(name = "limit", required = false) Integer limit,
                                         @RequestParam(name = "order", required = false) String order,
-                                        @RequestParam(name = "since", required = false) String since) {
+                                        @RequestParam(name = "since", required = false) String since,
+                                        @RequestParam(name = "cursor", required = false) String cursor) {
         if (StringUtils.isEmpty(user)) {
             return ResponseEntity.ok(ResponseBody.incorrect());
         }
@@ -448,21 +657,14 @@ public class GodController {
         if (!"desc".equalsIgnoreCase(order) && !"asc".equalsIgnoreCase(order)) {
             return ResponseEntity.ok(ResponseBody.incorrect());
         }
-        String query = "SELECT * FROM post WHERE user_id = ? ";
-        if (since != null) {
-            query += "AND creation_time >= ? ";
-        }
-        query += "ORDER BY creation_time " + order;
-        if (limit != null) {
-            query += " LIMIT ?";
-        }
-        query += ';';
-        final SqlRowSet set = listQuery(query, UserDetails.getId(user), limit, since);
-        final List<PostDetails> posts = new ArrayList<>();
-        while (set.next()) {
-            posts.add(new PostDetails(set));
-        }
-        return ResponseEntity.ok(ResponseBody.ok(posts.toArray()));
+        final Object[] after = cursor != null ? Cursor.decode(cursor, TIME_CURSOR) : null;
+        final String query = USER_POSTS_QUERY.get("desc".equalsIgnoreCase(order), since != null,
+                after != null ? 1 : 0, limit != null);
+        final Object[] args = listArgs(UserDetails.getId(user), limit, since, timeKeysetArgs(after));
+        final RowStream<PostDetails> posts = new RowStream<>(transactionTemplate, sink -> new RowReader<>(jdbcTemplate,
+                query, args, PostDetails::new, postFetchSize, chunk -> PostDetails.hydrate(chunk, null))
+                .read(sink, limit, GodController::postCursor));
+        return ResponseEntity.ok(ResponseBody.ok(posts));
     }
 
     @SuppressWarnings("OverlyComplexMethod")
@@ -471,7 +673,8 @@ public class GodController {
     public ResponseEntity listForumUsers(@RequestParam(name = "forum") String forum,
                                          @RequestParam(name = "limit", required = false) Integer limit,
                                          @RequestParam(name = "order", required = false) String order,
-                                         @RequestParam(name = "since_id", required = false) Integer since) {
+                                         @RequestParam(name = "since_id", required = false) Integer since,
+                                         @RequestParam(name = "cursor", required = false) String cursor) {
         if (StringUtils.isEmpty(forum)) {
             return ResponseEntity.ok(ResponseBody.incorrect());
         }
@@ -481,60 +684,22 @@ public class GodController {
         if (!"desc".equalsIgnoreCase(order) && !"asc".equalsIgnoreCase(order)) {
             return ResponseEntity.ok(ResponseBody.incorrect());
         }
-        String query = "SELECT * FROM user_profile WHERE id IN (SELECT DISTINCT user_id FROM post WHERE " +
-                "forum_id = ?) ";
-        if (since != null) {
-            query += "AND id >= ? ";
-        }
-        query += "ORDER BY name " + order;
-        if (limit != null) {
-            query += " LIMIT ?";
-        }
-        query += ';';
-        final SqlRowSet set = listQuery(query, ForumDetails.getId(forum), limit, since);
-        final List<UserDetails> list = new ArrayList<>();
-        while (set.next()) {
-            final UserDetails details = new UserDetails();
-            details.about = set.getString("about");
-            details.email = set.getString("email");
-            details.id = set.getInt("id");
-            details.isAnonymous = set.getBoolean("isAnonymous");
-            details.username = set.getString("username");
-            details.name = set.getString("name");
-            final SqlRowSet followerSet = jdbcTemplate.queryForRowSet("SELECT follower FROM following WHERE " +
-                    "followee = ?;", details.id);
-            final List<String> followerList = new ArrayList<>();
-            while (followerSet.next()) {
-                followerList.add(followerSet.getString("follower"));
-            }
-            details.followers = followerList.toArray(new String[followerList.size()]);
-            final SqlRowSet followeeSet = jdbcTemplate.queryForRowSet("SELECT followee FROM following WHERE " +
-                    "follower = ?;", details.id);
-            final List<String> followeeList = new ArrayList<>();
-            while (followeeSet.next()) {
-                followeeList.add(followeeSet.getString("followee"));
-            }
-            details.following = followeeList.toArray(new String[followeeList.size()]);
-            final SqlRowSet subscriptionSet = jdbcTemplate.queryForRowSet("SELECT thread_id FROM subscription WHERE " +
-                    "user_id = ?;", details.id);
-            final List<Integer> subscriptionList = new ArrayList<>();
-            while (subscriptionSet.next()) {
-                subscriptionList.add(subscriptionSet.getInt("thread_id"));
-            }
-            details.subscriptions = subscriptionList.stream().mapToInt(i -> i).toArray();
-            list.add(details);
-        }
-        return ResponseEntity.ok(ResponseBody.ok(list.toArray()));
+        final Object[] after = cursor != null ? Cursor.decode(cursor, NAME_CURSOR) : null;
+        final String query = FORUM_USERS_QUERY.get("desc".equalsIgnoreCase(order), since != null, nameKeyset(after),
+                limit != null);
+        final Object[] users = UserDetails.list(listIds(query, ForumDetails.getId(forum), limit, since,
+                nameKeysetArgs(after)));
+        return ResponseEntity.ok(ResponseBody.ok(users, userCursor(users, limit)));
     }
 
     @SuppressWarnings("OverlyComplexMethod")
-    @Transactional
     @RequestMapping(path = "db/api/forum/listThreads", method = RequestMethod.GET)
     public ResponseEntity listForumThreads(@RequestParam(name = "forum") String forum,
                                            @RequestParam(name = "limit", required = false) Integer limit,
                                            @RequestParam(name = "order", required = false) String order,
                                            @RequestParam(name = "since", required = false) String since,
-                                           @RequestParam(name = "related", required = false) String[] related) {
+                                           @RequestParam(name = "related", required = false) String[] related,
+                                           @RequestParam(name = "cursor", required = false) String cursor) {
         if (StringUtils.isEmpty(forum)) {
             return ResponseEntity.ok(ResponseBody.incorrect());
         }
@@ -547,31 +712,24 @@ public class GodController {
         if (!"desc".equalsIgnoreCase(order) && !"asc".equalsIgnoreCase(order)) {
             return ResponseEntity.ok(ResponseBody.incorrect());
         }
-        String query = "SELECT * FROM thread WHERE forum_id = ? ";
-        if (since != null) {
-            query += "AND creation_time >= ? ";
-        }
-        query += "ORDER BY creation_time " + order;
-        if (limit != null) {
-            query += " LIMIT ?";
-        }
-        query += ';';
-        final SqlRowSet set = listQuery(query, ForumDetails.getId(forum), limit, since);
-        final List<ThreadDetails> list = new ArrayList<>();
-        while (set.next()) {
-            list.add(new ThreadDetails(set, related));
-        }
-        return ResponseEntity.ok(ResponseBody.ok(list.toArray()));
+        final Object[] after = cursor != null ? Cursor.decode(cursor, TIME_CURSOR) : null;
+        final String query = FORUM_THREADS_QUERY.get("desc".equalsIgnoreCase(order), since != null,
+                after != null ? 1 : 0, limit != null);
+        final Object[] args = listArgs(ForumDetails.getId(forum), limit, since, timeKeysetArgs(after));
+        final RowStream<ThreadDetails> list = new RowStream<>(transactionTemplate, sink -> new RowReader<>(
+                jdbcTemplate, query, args, ThreadDetails::new, threadFetchSize,
+                chunk -> ThreadDetails.hydrate(chunk, related)).read(sink, limit, GodController::threadCursor));
+        return ResponseEntity.ok(ResponseBody.ok(list));
     }
 
     @SuppressWarnings("OverlyComplexMethod")
-    @Transactional
     @RequestMapping(path = "db/api/forum/listPosts", method = RequestMethod.GET)
     public ResponseEntity listForumPosts(@RequestParam(name = "forum") String forum,
                                          @RequestParam(name = "limit", required = false) Integer limit,
                                          @RequestParam(name = "order", required = false) String order,
                                          @RequestParam(name = "since", required = false) String since,
-                                         @RequestParam(name = "related", required = false) String[] related) {
+                                         @RequestParam(name = "related", required = false) String[] related,
+                                         @RequestParam(name = "cursor", required = false) String cursor) {
         if (StringUtils.isEmpty(forum)) {
             return ResponseEntity.ok(ResponseBody.incorrect());
         }
@@ -584,31 +742,24 @@ public class GodController {
         if (!"desc".equalsIgnoreCase(order) && !"asc".equalsIgnoreCase(order)) {
             return ResponseEntity.ok(ResponseBody.incorrect());
         }
-        String query = "SELECT * FROM post WHERE forum_id = ? ";
-        if (since != null) {
-            query += "AND creation_time >= ? ";
-        }
-        query += "ORDER BY creation_time " + order;
-        if (limit != null) {
-            query += " LIMIT ?";
-        }
-        query += ';';
-        final SqlRowSet set = listQuery(query, ForumDetails.getId(forum), limit, since);
-        final List<PostDetails> list = new ArrayList<>();
-        while (set.next()) {
-            list.add(new PostDetails(set, related));
-        }
-        return ResponseEntity.ok(ResponseBody.ok(list.toArray()));
+        final Object[] after = cursor != null ? Cursor.decode(cursor, TIME_CURSOR) : null;
+        final String query = FORUM_POSTS_QUERY.get("desc".equalsIgnoreCase(order), since != null,
+                after != null ? 1 : 0, limit != null);
+        final Object[] args = listArgs(ForumDetails.getId(forum), limit, since, timeKeysetArgs(after));
+        final RowStream<PostDetails> list = new RowStream<>(transactionTemplate, sink -> new RowReader<>(jdbcTemplate,
+                query, args, PostDetails::new, postFetchSize, chunk -> PostDetails.hydrate(chunk, related))
+                .read(sink, limit, GodController::postCursor));
+        return ResponseEntity.ok(ResponseBody.ok(list));
     }
 
     @SuppressWarnings("OverlyComplexMethod")
-    @Transactional
     @RequestMapping(path = "db/api/post/list", method = RequestMethod.GET)
     public ResponseEntity listPosts(@RequestParam(name = "forum", required = false) String forum,
                                     @RequestParam(name = "thread", required = false) Integer thread,
                                     @RequestParam(name = "limit", required = false) Integer limit,
                                     @RequestParam(name = "order", required = false) String order,
-                                    @RequestParam(name = "since", required = false) String since) {
+                                    @RequestParam(name = "since", required = false) String since,
+                                    @RequestParam(name = "cursor", required = false) String cursor) {
         if (StringUtils.isEmpty(forum) == (thread == null)) {
             return ResponseEntity.ok(ResponseBody.incorrect());
         }
@@ -618,45 +769,26 @@ public class GodController {
         if (!"desc".equalsIgnoreCase(order) && !"asc".equalsIgnoreCase(order)) {
             return ResponseEntity.ok(ResponseBody.incorrect());
         }
-        final SqlRowSet set;
-        if (StringUtils.isEmpty(forum)) {
-            String query = "SELECT * FROM post WHERE thread_id = ? ";
-            if (since != null) {
-                query += "AND creation_time >= ? ";
-            }
-            query += "ORDER BY creation_time " + order;
-            if (limit != null) {
-                query += " LIMIT ?";
-            }
-            query += ';';
-            set = listQuery(query, thread, limit, since);
-        } else {
-            String query = "SELECT * FROM post WHERE forum_id = ? ";
-            if (since != null) {
-                query += "AND creation_time >= ? ";
-            }
-            query += "ORDER BY creation_time " + order;
-            if (limit != null) {
-                query += " LIMIT ?";
-            }
-            query += ';';
-            set = listQuery(query, ForumDetails.getId(forum), limit, since);
-        }
-        final List<PostDetails> posts = new ArrayList<>();
-        while (set.next()) {
-            posts.add(new PostDetails(set));
-        }
-        return ResponseEntity.ok(ResponseBody.ok(posts.toArray()));
+        final boolean isByThread = StringUtils.isEmpty(forum);
+        final Object[] after = cursor != null ? Cursor.decode(cursor, TIME_CURSOR) : null;
+        final String query = (isByThread ? THREAD_POSTS_QUERY : FORUM_POSTS_QUERY).get(
+                "desc".equalsIgnoreCase(order), since != null, after != null ? 1 : 0, limit != null);
+        final Object[] args = listArgs(isByThread ? thread : ForumDetails.getId(forum), limit, since,
+                timeKeysetArgs(after));
+        final RowStream<PostDetails> posts = new RowStream<>(transactionTemplate, sink -> new RowReader<>(jdbcTemplate,
+                query, args, PostDetails::new, postFetchSize, chunk -> PostDetails.hydrate(chunk, null))
+                .read(sink, limit, GodController::postCursor));
+        return ResponseEntity.ok(ResponseBody.ok(posts));
     }
 
     @SuppressWarnings("OverlyComplexMethod")
-    @Transactional
     @RequestMapping(path = "db/api/thread/list", method = RequestMethod.GET)
     public ResponseEntity listThreads(@RequestParam(name = "forum", required = false) String forum,
                                       @RequestParam(name = "user", required = false) String user,
                                       @RequestParam(name = "limit", required = false) Integer limit,
                                       @RequestParam(name = "order", required = false) String order,
-                                      @RequestParam(name = "since", required = false) String since) {
+                                      @RequestParam(name = "since", required = false) String since,
+                                      @RequestParam(name = "cursor", required = false) String cursor) {
         if (StringUtils.isEmpty(forum) == StringUtils.isEmpty(user)) {
             return ResponseEntity.ok(ResponseBody.incorrect());
         }
@@ -666,35 +798,16 @@ public class GodController {
         if (!"desc".equalsIgnoreCase(order) && !"asc".equalsIgnoreCase(order)) {
             return ResponseEntity.ok(ResponseBody.incorrect());
         }
-        final SqlRowSet set;
-        if (StringUtils.isEmpty(forum)) {
-            String query = "SELECT * FROM thread WHERE user_id = ? ";
-            if (since != null) {
-                query += "AND creation_time >= ? ";
-            }
-            query += "ORDER BY creation_time " + order;
-            if (limit != null) {
-                query += " LIMIT ?";
-            }
-            query += ';';
-            set = listQuery(query, UserDetails.getId(user), limit, since);
-        } else {
-            String query = "SELECT * FROM thread WHERE forum_id = ? ";
-            if (since != null) {
-                query += "AND creation_time >= ? ";
-            }
-            query += "ORDER BY creation_time " + order;
-            if (limit != null) {
-                query += " LIMIT ?";
-            }
-            query += ';';
-            set = listQuery(query, ForumDetails.getId(forum), limit, since);
-        }
-        final List<ThreadDetails> list = new ArrayList<>();
-        while (set.next()) {
-            list.add(new ThreadDetails(set));
-        }
-        return ResponseEntity.ok(ResponseBody.ok(list.toArray()));
+        final boolean isByUser = StringUtils.isEmpty(forum);
+        final Object[] after = cursor != null ? Cursor.decode(cursor, TIME_CURSOR) : null;
+        final String query = (isByUser ? USER_THREADS_QUERY : FORUM_THREADS_QUERY).get(
+                "desc".equalsIgnoreCase(order), since != null, after != null ? 1 : 0, limit != null);
+        final Object[] args = listArgs(isByUser ? UserDetails.getId(user) : ForumDetails.getId(forum), limit, since,
+                timeKeysetArgs(after));
+        final RowStream<ThreadDetails> list = new RowStream<>(transactionTemplate, sink -> new RowReader<>(
+                jdbcTemplate, query, args, ThreadDetails::new, threadFetchSize,
+                chunk -> ThreadDetails.hydrate(chunk, null)).read(sink, limit, GodController::threadCursor));
+        return ResponseEntity.ok(ResponseBody.ok(list));
     }
 
     @Transactional
@@ -712,19 +825,28 @@ public class GodController {
 
     }
 
+    @Transactional
     @RequestMapping(path = "db/api/post/remove", method = RequestMethod.POST)
     public ResponseEntity deletePost(@RequestBody PostID request) {
-        jdbcTemplate.update("UPDATE post SET isDeleted = TRUE WHERE id = ?;", request.post);
-        jdbcTemplate.update("UPDATE thread SET posts = posts - 1 WHERE id = (SELECT thread_id FROM post WHERE id = ?);",
-                request.post);
+        final int thread = PostDetails.getThreadId(request.post);
+        if (thread < 0) {
+            return ResponseEntity.ok(ResponseBody.notFound());
+        }
+        jdbcTemplate.update("UPDATE post SET isDeleted = TRUE, deleted_epoch = ? WHERE id = ?;",
+                ThreadDetails.getEpoch(thread), request.post);
+        addThreadPosts(thread, -1, 0);
         return ResponseEntity.ok(ResponseBody.ok(request));
     }
 
+    @Transactional
     @RequestMapping(path = "db/api/post/restore", method = RequestMethod.POST)
     public ResponseEntity restorePost(@RequestBody PostID request) {
+        final int thread = PostDetails.getThreadId(request.post);
+        if (thread < 0) {
+            return ResponseEntity.ok(ResponseBody.notFound());
+        }
         jdbcTemplate.update("UPDATE post SET isDeleted = FALSE WHERE id = ?;", request.post);
-        jdbcTemplate.update("UPDATE thread SET posts = posts + 1 WHERE id = (SELECT thread_id FROM post WHERE id = ?);",
-                request.post);
+        addThreadPosts(thread, 1, 0);
         return ResponseEntity.ok(ResponseBody.ok(request));
     }
 
@@ -735,11 +857,12 @@ public class GodController {
         if (field == null) {
             return ResponseEntity.ok(ResponseBody.incorrect());
         }
-        jdbcTemplate.update(String.format("UPDATE post SET %s = %s + 1 WHERE id = ?;", field, field), request.post);
         final PostDetails details = PostDetails.get(request.post, null);
         if (details == null) {
             return ResponseEntity.ok(ResponseBody.notFound());
         }
+        addVote(POST_VOTES, request.post, request.vote);
+        details.vote(request.vote);
         return ResponseEntity.ok(ResponseBody.ok(details));
     }
 
@@ -750,40 +873,58 @@ public class GodController {
         if (vote == null) {
             return ResponseEntity.ok(ResponseBody.incorrect());
         }
-        jdbcTemplate.update(String.format("UPDATE thread SET %s = %s + 1 WHERE id = ?;", vote, vote), request.thread);
         final ThreadDetails details = ThreadDetails.get(request.thread, null);
         if (details == null) {
             return ResponseEntity.ok(ResponseBody.notFound());
         }
+        THREADS.update(request.thread, thread -> thread.vote(request.vote));
+        addVote(THREAD_VOTES, request.thread, request.vote);
+        details.vote(request.vote);
         return ResponseEntity.ok(ResponseBody.ok(details));
     }
 
     @RequestMapping(path = "db/api/thread/close", method = RequestMethod.POST)
     public ResponseEntity closeThread(@RequestBody ThreadID request) {
         jdbcTemplate.update("UPDATE thread SET isClosed = TRUE WHERE id = ?;", request.thread);
+        THREADS.update(request.thread, thread -> thread.isClosed = true);
         return ResponseEntity.ok(ResponseBody.ok(request));
     }
 
     @RequestMapping(path = "db/api/thread/open", method = RequestMethod.POST)
     public ResponseEntity openThread(@RequestBody ThreadID request) {
         jdbcTemplate.update("UPDATE thread SET isClosed = FALSE WHERE id = ?;", request.thread);
+        THREADS.update(request.thread, thread -> thread.isClosed = false);
         return ResponseEntity.ok(ResponseBody.ok(request));
     }
 
-    @Transactional
     @RequestMapping(path = "db/api/thread/remove", method = RequestMethod.POST)
     public ResponseEntity deleteThread(@RequestBody ThreadID request) {
-        jdbcTemplate.update("UPDATE thread SET isDeleted = TRUE, posts = 0 WHERE id = ?;", request.thread);
-        jdbcTemplate.update("UPDATE post SET isDeleted = TRUE WHERE thread_id = ?;", request.thread);
+        // The flush takes deltaLock too, so buffered posts are reset only once this commit is visible to it.
+        synchronized (deltaLock) {
+            transactionTemplate.execute(status -> {
+                jdbcTemplate.update("UPDATE thread SET isDeleted = TRUE, posts = 0 WHERE id = ?;", request.thread);
+                afterCommit(() -> THREAD_POSTS.update(request.thread, pending -> pending[POSTS] = 0));
+                THREADS.update(request.thread, thread -> {
+                    thread.isDeleted = true;
+                    thread.posts = 0;
+                });
+                return null;
+            });
+        }
         return ResponseEntity.ok(ResponseBody.ok(request));
     }
 
-    @Transactional
     @RequestMapping(path = "db/api/thread/restore", method = RequestMethod.POST)
     public ResponseEntity restoreThread(@RequestBody ThreadID request) {
-        jdbcTemplate.update("UPDATE thread SET isDeleted = FALSE, posts = (" +
-                "SELECT count(*) FROM post WHERE thread_id = ?) WHERE id = ?;", request.thread, request.thread);
-        jdbcTemplate.update("UPDATE post SET isDeleted = FALSE WHERE thread_id = ?;", request.thread);
+        synchronized (deltaLock) {
+            transactionTemplate.execute(status -> {
+                jdbcTemplate.update("UPDATE thread SET isDeleted = FALSE, epoch = epoch + 1, posts = all_posts " +
+                        "WHERE id = ?;", request.thread);
+                afterCommit(() -> THREAD_POSTS.update(request.thread, pending -> pending[POSTS] = pending[ALL_POSTS]));
+                THREADS.evict(request.thread);
+                return null;
+            });
+        }
         return ResponseEntity.ok(ResponseBody.ok(request));
     }
 
@@ -793,23 +934,29 @@ public class GodController {
         if (StringUtils.isEmpty(request.message) || StringUtils.isEmpty(request.slug)) {
             return ResponseEntity.ok(ResponseBody.incorrect());
         }
-        jdbcTemplate.update("UPDATE thread SET message = ?, slug = ? WHERE id = ?;", request.message, request.slug,
-                request.thread);
         final ThreadDetails details = ThreadDetails.get(request.thread, null);
         if (details == null) {
             return ResponseEntity.ok(ResponseBody.notFound());
         }
+        jdbcTemplate.update("UPDATE thread SET message = ?, slug = ? WHERE id = ?;", request.message, request.slug,
+                request.thread);
+        THREADS.update(request.thread, thread -> {
+            thread.message = request.message;
+            thread.slug = request.slug;
+        });
+        details.message = request.message;
+        details.slug = request.slug;
         return ResponseEntity.ok(ResponseBody.ok(details));
     }
 
     @SuppressWarnings("OverlyComplexMethod")
-    @Transactional
     @RequestMapping(path = "db/api/thread/listPosts", method = RequestMethod.GET)
     public ResponseEntity listThreadPosts(@RequestParam(name = "thread") int thread,
                                           @RequestParam(name = "limit", required = false) Integer limit,
                                           @RequestParam(name = "sort", required = false) String sort,
                                           @RequestParam(name = "order", required = false) String order,
-                                          @RequestParam(name = "since", required = false) String since) {
+                                          @RequestParam(name = "since", required = false) String since,
+                                          @RequestParam(name = "cursor", required = false) String cursor) {
         if (StringUtils.isEmpty(sort)) {
             sort = "flat";
         }
@@ -823,36 +970,72 @@ public class GodController {
         if (!"desc".equalsIgnoreCase(order) && !"asc".equalsIgnoreCase(order)) {
             return ResponseEntity.ok(ResponseBody.incorrect());
         }
-        String query = "SELECT * FROM post WHERE thread_id = ? ";
-        final boolean isSinceNotNull = since != null;
-        if (isSinceNotNull) {
-            query += "AND creation_time >= ? ";
-        }
-        query += "ORDER BY creation_time " + order;
-        final boolean isLimitUsed = limit != null && isSortFlat;
-        if (isLimitUsed) {
-            query += " LIMIT ?";
-        }
-        query += ';';
-        final SqlRowSet set;
-        if (!isSinceNotNull && !isLimitUsed) {
-            set = jdbcTemplate.queryForRowSet(query, thread);
-        } else if (isSinceNotNull && !isLimitUsed) {
-            set = jdbcTemplate.queryForRowSet(query, thread, since);
-        } else if (!isSinceNotNull) {
-            set = jdbcTemplate.queryForRowSet(query, thread, limit);
+        final boolean desc = "desc".equalsIgnoreCase(order);
+        if ("parent_tree".equalsIgnoreCase(sort)) {
+            final Object[] after = cursor != null ? Cursor.decode(cursor, Cursor.Key.ID) : null;
+            final String rootQuery = ROOTS_QUERY.get(desc, since != null, after != null ? 1 : 0, limit != null);
+            final RowStream<PostDetails> list = new RowStream<>(transactionTemplate, sink -> {
+                final List<Object> args = new ArrayList<>(listIds(rootQuery, thread, limit, since,
+                        after != null ? after : new Object[0]));
+                if (args.isEmpty()) {
+                    return null;
+                }
+                final String nextCursor = limit != null && args.size() == limit ?
+                        Cursor.encode(args.get(args.size() - 1)) : null;
+                final int bucket = 32 - Integer.numberOfLeadingZeros(args.size() - 1);
+                final String query;
+                if (bucket < ROOT_POSTS_BUCKETS) {
+                    while (args.size() < 1 << bucket) {
+                        args.add(args.get(args.size() - 1));
+                    }
+                    query = ROOT_POSTS_QUERIES[bucket * 4 + (since != null ? 2 : 0) + (desc ? 1 : 0)];
+                } else {
+                    query = rootPostsQuery(args.size(), since != null, desc);
+                }
+                if (since != null) {
+                    args.add(since);
+                }
+                new RowReader<>(jdbcTemplate, query, args.toArray(), PostDetails::new, postFetchSize,
+                        chunk -> PostDetails.hydrate(chunk, null)).read(sink);
+                return nextCursor;
+            });
+            return ResponseEntity.ok(ResponseBody.ok(list));
+        }
+        final Object[] after;
+        if (cursor == null) {
+            after = null;
+        } else if (isSortFlat) {
+            after = Cursor.decode(cursor, TIME_CURSOR);
+        } else if (desc) {
+            after = Cursor.decode(cursor, Cursor.Key.ID, Cursor.Key.PATH);
         } else {
-            set = jdbcTemplate.queryForRowSet(query, thread, since, limit);
-        }
-        final List<PostDetails> list = new ArrayList<>();
-        while (set.next()) {
-            list.add(new PostDetails(set));
+            after = Cursor.decode(cursor, Cursor.Key.PATH);
+        }
+        final String query = (isSortFlat ? THREAD_POSTS_QUERY : TREE_POSTS_QUERY).get(desc, since != null,
+                after != null ? 1 : 0, limit != null);
+        final Object[] keys;
+        if (after == null) {
+            keys = new Object[0];
+        } else if (isSortFlat) {
+            keys = timeKeysetArgs(after);
+        } else if (desc) {
+            keys = new Object[]{-(int) after[0], -(int) after[0], after[1]};
+        } else {
+            keys = after;
         }
+        final Function<PostDetails, String> nextCursor;
         if (isSortFlat) {
-            return ResponseEntity.ok(ResponseBody.ok(list.toArray()));
+            nextCursor = GodController::postCursor;
+        } else if (desc) {
+            nextCursor = last -> Cursor.encode(last.rootId, last.path);
+        } else {
+            nextCursor = last -> Cursor.encode((Object) last.path);
         }
-        return ResponseEntity.ok(ResponseBody.ok(PostDetails.sortPosts(list, sort, limit,
-                "desc".equalsIgnoreCase(order)).toArray()));
+        final Object[] args = listArgs(thread, limit, since, keys);
+        final RowStream<PostDetails> list = new RowStream<>(transactionTemplate, sink -> new RowReader<>(jdbcTemplate,
+                query, args, PostDetails::new, postFetchSize, chunk -> PostDetails.hydrate(chunk, null))
+                .read(sink, limit, nextCursor));
+        return ResponseEntity.ok(ResponseBody.ok(list));
     }
 
     @ExceptionHandler({HttpMessageNotReadableException.class, MissingServletRequestParameterException.class})
@@ -860,116 +1043,619 @@ public class GodController {
         return ResponseEntity.ok(ResponseBody.invalid());
     }
 
+    @ExceptionHandler(BatchRejectedException.class)
+    public ResponseEntity handleBatchRejected(BatchRejectedException e) {
+        return ResponseEntity.ok(e.body);
+    }
+
+    @ExceptionHandler(GroupCommitQueue.RejectedException.class)
+    public ResponseEntity handleRejectedWrite() {
+        return ResponseEntity.ok(ResponseBody.unknownError());
+    }
+
+    @ExceptionHandler(Cursor.InvalidCursorException.class)
+    public ResponseEntity handleInvalidCursor() {
+        return ResponseEntity.ok(ResponseBody.incorrect());
+    }
+
     @ExceptionHandler(DataAccessException.class)
     public ResponseEntity handleDataAccessException() {
         return ResponseEntity.ok(ResponseBody.unknownError());
     }
 
-    private SqlRowSet listQuery(String query, Object arguement, Object limit, Object since) {
-        final boolean isSinceNotNull = since != null;
-        final boolean isLimitNotNull = limit != null;
-        final SqlRowSet set;
-        if (isSinceNotNull && isLimitNotNull) {
-            set = jdbcTemplate.queryForRowSet(query, arguement, since, limit);
-        } else if (isLimitNotNull) {
-            set = jdbcTemplate.queryForRowSet(query, arguement, limit);
-        } else if (isSinceNotNull) {
-            set = jdbcTemplate.queryForRowSet(query, arguement, since);
-        } else {
-            set = jdbcTemplate.queryForRowSet(query, arguement);
+    @ExceptionHandler(HttpMessageNotWritableException.class)
+    public ResponseEntity handleNotWritable(HttpMessageNotWritableException e, HttpServletResponse response) {
+        if (!response.isCommitted()) {
+            try {
+                response.resetBuffer();
+                return ResponseEntity.ok(ResponseBody.unknownError());
+            } catch (IllegalStateException ignore) {
+            }
         }
-        return set;
+        throw e;
     }
 
-    @SuppressWarnings("unused")
-    private static final class ResponseBody {
-        private int code;
-        private Object response;
+    private List<Integer> listIds(String query, Object argument, Object limit, Object since, Object... keys) {
+        return jdbcTemplate.queryForList(query, Integer.class, listArgs(argument, limit, since, keys));
+    }
 
-        @SuppressWarnings("PublicConstructorInNonPublicClass")
-        public ResponseBody() {
+    private static Object[] listArgs(Object argument, Object limit, Object since, Object... keys) {
+        final List<Object> args = new ArrayList<>();
+        args.add(argument);
+        if (since != null) {
+            args.add(since);
         }
-
-        @SuppressWarnings("PublicConstructorInNonPublicClass")
-        public ResponseBody(int code, Object response) {
-            this.code = code;
-            this.response = response;
+        Collections.addAll(args, keys);
+        if (limit != null) {
+            args.add(limit);
         }
+        return args.toArray();
+    }
 
-        public int getCode() {
-            return code;
-        }
+    private static Object[] timeKeysetArgs(Object[] after) {
+        return after != null ? new Object[]{after[0], after[0], after[1]} : new Object[0];
+    }
 
-        public void setCode(int code) {
-            this.code = code;
+    private static int nameKeyset(Object[] after) {
+        if (after == null) {
+            return 0;
         }
+        return after[0] == null ? 1 : 2;
+    }
 
-        public Object getResponse() {
-            return response;
+    private static String[] rootPostsQueries() {
+        final String[] queries = new String[ROOT_POSTS_BUCKETS * 4];
+        for (int bucket = 0; bucket < ROOT_POSTS_BUCKETS; bucket++) {
+            for (int flags = 0; flags < 4; flags++) {
+                queries[bucket * 4 + flags] = rootPostsQuery(1 << bucket, (flags & 2) != 0, (flags & 1) != 0);
+            }
         }
+        return queries;
+    }
 
-        public void setResponse(Object response) {
-            this.response = response;
-        }
+    private static String rootPostsQuery(int roots, boolean since, boolean desc) {
+        return "SELECT * FROM post WHERE root_id IN " + Utils.inClause(roots) + ' ' +
+                (since ? "AND creation_time >= ? " : "") + "ORDER BY root_id " + (desc ? "DESC" : "ASC") + ", path;";
+    }
 
-        @SuppressWarnings("StaticMethodNamingConvention")
-        public static ResponseBody ok() {
-            return new ResponseBody(0, "OK");
+    private static Object[] nameKeysetArgs(Object[] after) {
+        if (after == null) {
+            return new Object[0];
         }
+        return after[0] == null ? new Object[]{after[1]} : new Object[]{after[0], after[0], after[1]};
+    }
 
-        @SuppressWarnings("StaticMethodNamingConvention")
-        public static ResponseBody ok(Object response) {
-            return new ResponseBody(0, response);
-        }
+    private static void addForumUser(int forum, int user) {
+        jdbcTemplate.update("INSERT IGNORE INTO forum_users (forum_id, user_name, user_id) SELECT ?, name, id " +
+                "FROM user_profile WHERE id = ?;", forum, user);
+    }
 
-        public static ResponseBody notFound() {
-            return new ResponseBody(1, "Requested object not found");
-        }
+    private void addVote(DeltaBuffer votes, int id, int vote) {
+        addDelta(votes, id, vote > 0 ? LIKES : DISLIKES, 1);
+    }
 
-        public static ResponseBody invalid() {
-            return new ResponseBody(2, "Invalid request");
-        }
+    private void addThreadPosts(int thread, int posts, int allPosts) {
+        THREADS.update(thread, entry -> entry.posts += posts);
+        afterCommit(() -> {
+            addDelta(THREAD_POSTS, thread, POSTS, posts);
+            addDelta(THREAD_POSTS, thread, ALL_POSTS, allPosts);
+        });
+    }
 
-        public static ResponseBody incorrect() {
-            return new ResponseBody(3, "Incorrect request");
+    private static Collection<ForumEntry> forums() {
+        final List<ForumEntry> forums = new ArrayList<>();
+        final SqlRowSet set = jdbcTemplate.queryForRowSet("SELECT * FROM forum;");
+        while (set.next()) {
+            forums.add(new ForumEntry(set.getInt("id"), set.getString("name"), set.getString("short_name"),
+                    set.getInt("user_id")));
         }
+        return forums;
+    }
 
-        public static ResponseBody unknownError() {
-            return new ResponseBody(4, "Unknown error");
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
         }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
 
-        public static ResponseBody userAlreadyExists() {
-            return new ResponseBody(5, "User already exists");
+    private void addDelta(DeltaBuffer buffer, int id, int counter, int delta) {
+        if (buffer.add(id, counter, delta) >= DELTA_FLUSH_THRESHOLD &&
+                deltaFlushRequested.compareAndSet(false, true)) {
+            deltaFlusher.execute(this::flushDeltas);
         }
     }
 
-    @SuppressWarnings("unused")
-    private static final class StatusResponse {
-        private int user;
-        private int thread;
-        private int forum;
-        private int post;
-
-        @SuppressWarnings("PublicConstructorInNonPublicClass")
-        public StatusResponse() {
+    private void flushDeltas() {
+        deltaFlushRequested.set(false);
+        synchronized (deltaLock) {
+            if (POST_VOTES.size() == 0 && THREAD_VOTES.size() == 0 && THREAD_POSTS.size() == 0) {
+                return;
+            }
+            try {
+                transactionTemplate.execute(status -> {
+                    final Set<Integer> threadIds = THREAD_VOTES.ids();
+                    threadIds.addAll(THREAD_POSTS.ids());
+                    for (int id : threadIds) {
+                        THREADS.markPending(id);
+                    }
+                    final Map<Integer, int[]> posts = POST_VOTES.drain();
+                    final Map<Integer, int[]> threads = THREAD_VOTES.drain(threadIds);
+                    final Map<Integer, int[]> threadPosts = THREAD_POSTS.drain(threadIds);
+                    TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                        @Override
+                        public void afterCompletion(int status) {
+                            POST_VOTES.complete(status == STATUS_COMMITTED);
+                            THREAD_VOTES.complete(status == STATUS_COMMITTED);
+                            THREAD_POSTS.complete(status == STATUS_COMMITTED);
+                        }
+                    });
+                    jdbcTemplate.batchUpdate("UPDATE post SET likes = likes + ?, dislikes = dislikes + ? WHERE id = ?;",
+                            voteArgs(posts));
+                    jdbcTemplate.batchUpdate("UPDATE thread SET likes = likes + ?, dislikes = dislikes + ? " +
+                            "WHERE id = ?;", voteArgs(threads));
+                    final List<Object[]> postsArgs = new ArrayList<>(threadPosts.size());
+                    for (Map.Entry<Integer, int[]> entry : threadPosts.entrySet()) {
+                        postsArgs.add(new Object[]{entry.getValue()[POSTS], entry.getValue()[ALL_POSTS],
+                                entry.getKey()});
+                    }
+                    jdbcTemplate.batchUpdate("UPDATE thread SET posts = posts + ?, all_posts = all_posts + ? " +
+                            "WHERE id = ?;", postsArgs);
+                    return null;
+                });
+            } catch (DataAccessException ignore) {
+            }
         }
+    }
 
-        @SuppressWarnings("PublicConstructorInNonPublicClass")
-        public StatusResponse(int user, int thread, int forum, int post) {
-            this.user = user;
-            this.thread = thread;
-            this.forum = forum;
-            this.post = post;
+    private static List<Object[]> voteArgs(Map<Integer, int[]> votes) {
+        final List<Object[]> args = new ArrayList<>(votes.size());
+        for (Map.Entry<Integer, int[]> entry : votes.entrySet()) {
+            args.add(new Object[]{entry.getValue()[LIKES], entry.getValue()[DISLIKES], entry.getKey()});
         }
+        return args;
+    }
 
-        public int getUser() {
-            return user;
+    @SuppressWarnings({"OverlyComplexBooleanExpression", "OverlyComplexMethod", "OverlyLongMethod"})
+    private Object[] insertPosts(PostCreateRequest[] requests) {
+        final Set<String> emails = new HashSet<>();
+        final Set<Integer> threads = new HashSet<>();
+        final Set<Integer> parents = new HashSet<>();
+        for (PostCreateRequest request : requests) {
+            if (StringUtils.isEmpty(request.date) || StringUtils.isEmpty(request.forum) ||
+                    StringUtils.isEmpty(request.user) || StringUtils.isEmpty(request.message) ||
+                    request.thread == null) {
+                throw new BatchRejectedException(ResponseBody.invalid());
+            }
+            emails.add(request.user);
+            threads.add(request.thread);
+            if (request.parent != null) {
+                parents.add(request.parent);
+            }
         }
-
-        public void setUser(int user) {
-            this.user = user;
+        final Map<String, Integer> users = UserDetails.getIds(emails);
+        final int[] userIds = new int[requests.length];
+        final int[] forumIds = new int[requests.length];
+        for (int i = 0; i < requests.length; i++) {
+            final Integer user = users.get(requests[i].user);
+            forumIds[i] = ForumDetails.getId(requests[i].forum);
+            if (user == null || forumIds[i] < 0) {
+                throw new BatchRejectedException(ResponseBody.notFound());
+            }
+            userIds[i] = user;
+        }
+        final Map<Integer, ThreadDetails> threadDetails = THREADS.get(threads);
+        if (threadDetails.size() != threads.size()) {
+            throw new BatchRejectedException(ResponseBody.incorrect());
+        }
+        final Map<Integer, PostPath> paths = PostPath.get(parents);
+        final List<Object[]> rows = new ArrayList<>(requests.length);
+        final Map<Integer, int[]> threadPosts = new HashMap<>();
+        final Set<List<Integer>> forumUsers = new LinkedHashSet<>();
+        final Object[] response = new Object[requests.length];
+        for (int i = 0; i < requests.length; i++) {
+            final PostCreateRequest request = requests[i];
+            final PostPath parentPath = request.parent != null ? paths.get(request.parent) : null;
+            if (request.parent != null && (parentPath == null || parentPath.thread != request.thread ||
+                    parentPath.path.length >= PostPath.MAX_LENGTH)) {
+                throw new BatchRejectedException(ResponseBody.incorrect());
+            }
+            final int id = postIds.next();
+            final PostPath path = new PostPath(parentPath, request.thread, id);
+            paths.put(id, path);
+            rows.add(new Object[]{id, userIds[i], request.message, forumIds[i], request.thread, request.parent,
+                    path.root, -path.root, path.path, DateCodec.parse(request.date), request.isApproved,
+                    request.isHighlighted, request.isEdited, request.isSpam, request.isDeleted,
+                    threadDetails.get(request.thread).epoch});
+            final int[] counts = threadPosts.computeIfAbsent(request.thread, thread -> new int[2]);
+            counts[POSTS] += request.isDeleted ? 0 : 1;
+            counts[ALL_POSTS]++;
+            forumUsers.add(Arrays.asList(forumIds[i], userIds[i]));
+            response[i] = new PostCreateResponse(id, request);
         }
-
+        try {
+            jdbcTemplate.batchUpdate("INSERT INTO post (id, user_id, message, forum_id, thread_id, parent, root_id, " +
+                    "root_desc, path, creation_time, isApproved, isHighlighted, isEdited, isSpam, isDeleted, " +
+                    "deleted_epoch) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?);", rows);
+        } catch (DataIntegrityViolationException e) {
+            throw new BatchRejectedException(ResponseBody.incorrect());
+        }
+        for (Map.Entry<Integer, int[]> entry : threadPosts.entrySet()) {
+            addThreadPosts(entry.getKey(), entry.getValue()[POSTS], entry.getValue()[ALL_POSTS]);
+        }
+        addForumUsers(forumUsers);
+        COUNTERS.add(COUNTERS.posts, requests.length);
+        return response;
+    }
+
+    @SuppressWarnings("OverlyComplexMethod")
+    private void importBatch(String type, List<JsonNode> batch, ImportProgress progress) throws IOException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        final List<Object> requests = new ArrayList<>(batch.size());
+        final Class<?> requestClass;
+        if ("user".equals(type)) {
+            requestClass = UserCreateRequest.class;
+        } else if ("forum".equals(type)) {
+            requestClass = ForumCreateRequest.class;
+        } else if ("thread".equals(type)) {
+            requestClass = ThreadCreateRequest.class;
+        } else if ("post".equals(type)) {
+            requestClass = PostCreateRequest.class;
+        } else if ("follow".equals(type)) {
+            requestClass = Following.class;
+        } else if ("subscribe".equals(type)) {
+            requestClass = Subscription.class;
+        } else {
+            throw new IllegalArgumentException("unknown type " + type);
+        }
+        for (JsonNode node : batch) {
+            requests.add(mapper.treeToValue(node, requestClass));
+        }
+        transactionTemplate.execute(status -> {
+            jdbcTemplate.execute("SET FOREIGN_KEY_CHECKS = 0");
+            try {
+                if ("user".equals(type)) {
+                    importUsers(requests.toArray(new UserCreateRequest[requests.size()]));
+                } else if ("forum".equals(type)) {
+                    importForums(requests.toArray(new ForumCreateRequest[requests.size()]));
+                } else if ("thread".equals(type)) {
+                    importThreads(requests.toArray(new ThreadCreateRequest[requests.size()]));
+                } else if ("post".equals(type)) {
+                    insertPosts(requests.toArray(new PostCreateRequest[requests.size()]));
+                } else if ("follow".equals(type)) {
+                    importFollowing(requests.toArray(new Following[requests.size()]));
+                } else {
+                    importSubscriptions(requests.toArray(new Subscription[requests.size()]));
+                }
+            } finally {
+                jdbcTemplate.execute("SET FOREIGN_KEY_CHECKS = 1");
+            }
+            return null;
+        });
+        progress.add(type, batch.size());
+    }
+
+    private void importUsers(UserCreateRequest[] requests) {
+        final int[] ids = new int[requests.length];
+        final List<Object[]> rows = new ArrayList<>(requests.length);
+        for (int i = 0; i < requests.length; i++) {
+            final UserCreateRequest request = requests[i];
+            if (StringUtils.isEmpty(request.email)) {
+                throw new BatchRejectedException(ResponseBody.invalid());
+            }
+            ids[i] = userIds.next();
+            rows.add(new Object[]{ids[i], request.username, request.email, request.name, request.about,
+                    request.isAnonymous});
+        }
+        final long stamp = WriteThroughCache.stamp();
+        jdbcTemplate.batchUpdate("INSERT INTO user_profile (id, username, email, name, about, isAnonymous) " +
+                "VALUES (?, ?, ?, ?, ?, ?);", rows);
+        afterCommit(() -> {
+            for (int i = 0; i < requests.length; i++) {
+                final UserCreateRequest request = requests[i];
+                USER_IDENTITIES.put(ids[i], request.email);
+                USERS.put(new UserAggregate(ids[i], request.username, request.email, request.name, request.about,
+                        request.isAnonymous), stamp);
+            }
+        });
+        COUNTERS.add(COUNTERS.users, requests.length);
+    }
+
+    private static void importForums(ForumCreateRequest[] requests) {
+        final Set<String> emails = new HashSet<>();
+        for (ForumCreateRequest request : requests) {
+            if (StringUtils.isEmpty(request.name) || StringUtils.isEmpty(request.short_name) ||
+                    StringUtils.isEmpty(request.user)) {
+                throw new BatchRejectedException(ResponseBody.invalid());
+            }
+            emails.add(request.user);
+        }
+        final Map<String, Integer> users = UserDetails.getIds(emails);
+        final List<Object[]> rows = new ArrayList<>(requests.length);
+        for (ForumCreateRequest request : requests) {
+            final Integer user = users.get(request.user);
+            if (user == null) {
+                throw new BatchRejectedException(ResponseBody.notFound());
+            }
+            rows.add(new Object[]{request.name, request.short_name, user});
+        }
+        final int[] ids = batchInsert("INSERT INTO forum (name, short_name, user_id) VALUES (?, ?, ?);", rows);
+        afterCommit(() -> {
+            for (int i = 0; i < requests.length; i++) {
+                FORUMS.put(new ForumEntry(ids[i], requests[i].name, requests[i].short_name, (int) rows.get(i)[2]));
+            }
+        });
+        COUNTERS.add(COUNTERS.forums, requests.length);
+    }
+
+    @SuppressWarnings("OverlyComplexBooleanExpression")
+    private void importThreads(ThreadCreateRequest[] requests) {
+        final Set<String> emails = new HashSet<>();
+        for (ThreadCreateRequest request : requests) {
+            if (request.isClosed == null || StringUtils.isEmpty(request.forum) ||
+                    StringUtils.isEmpty(request.title) || StringUtils.isEmpty(request.user) ||
+                    StringUtils.isEmpty(request.date) || StringUtils.isEmpty(request.message) ||
+                    StringUtils.isEmpty(request.slug)) {
+                throw new BatchRejectedException(ResponseBody.invalid());
+            }
+            emails.add(request.user);
+        }
+        final Map<String, Integer> users = UserDetails.getIds(emails);
+        final List<Object[]> rows = new ArrayList<>(requests.length);
+        final Set<List<Integer>> forumUsers = new LinkedHashSet<>();
+        for (ThreadCreateRequest request : requests) {
+            final Integer user = users.get(request.user);
+            final int forum = ForumDetails.getId(request.forum);
+            if (user == null || forum < 0) {
+                throw new BatchRejectedException(ResponseBody.notFound());
+            }
+            rows.add(new Object[]{threadIds.next(), forum, request.title, request.slug, request.message, user,
+                    DateCodec.parse(request.date), request.isClosed, request.isDeleted});
+            forumUsers.add(Arrays.asList(forum, user));
+        }
+        final long stamp = WriteThroughCache.stamp();
+        jdbcTemplate.batchUpdate("INSERT INTO thread (id, forum_id, title, slug, message, user_id, creation_time, " +
+                "isClosed, isDeleted) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?);", rows);
+        afterCommit(() -> {
+            for (int i = 0; i < requests.length; i++) {
+                final Object[] row = rows.get(i);
+                THREADS.put(new ThreadEntry((int) row[0], (int) row[1], (int) row[5], requests[i]), stamp);
+            }
+        });
+        addForumUsers(forumUsers);
+        COUNTERS.add(COUNTERS.threads, requests.length);
+    }
+
+    private static void importFollowing(Following[] requests) {
+        final Set<String> emails = new HashSet<>();
+        for (Following request : requests) {
+            if (StringUtils.isEmpty(request.follower) || StringUtils.isEmpty(request.followee)) {
+                throw new BatchRejectedException(ResponseBody.invalid());
+            }
+            emails.add(request.follower);
+            emails.add(request.followee);
+        }
+        final Map<String, Integer> users = UserDetails.getIds(emails);
+        final Map<Integer, String> names = new HashMap<>();
+        if (!users.isEmpty()) {
+            final SqlRowSet set = jdbcTemplate.queryForRowSet("SELECT id, name FROM user_profile WHERE id IN " +
+                    Utils.inClause(users.size()) + ';', users.values().toArray());
+            while (set.next()) {
+                names.put(set.getInt("id"), set.getString("name"));
+            }
+        }
+        final List<Object[]> rows = new ArrayList<>(requests.length);
+        for (Following request : requests) {
+            final Integer follower = users.get(request.follower);
+            final Integer followee = users.get(request.followee);
+            if (follower == null || followee == null) {
+                throw new BatchRejectedException(ResponseBody.notFound());
+            }
+            rows.add(new Object[]{follower, followee, names.get(follower), names.get(followee)});
+            USERS.update(follower, user -> user.following.add(followee));
+            USERS.update(followee, user -> user.followers.add(follower));
+        }
+        jdbcTemplate.batchUpdate("INSERT IGNORE INTO following (follower, followee, follower_name, followee_name) " +
+                "VALUES (?, ?, ?, ?);", rows);
+    }
+
+    private static void importSubscriptions(Subscription[] requests) {
+        final Set<String> emails = new HashSet<>();
+        final Set<Integer> threads = new HashSet<>();
+        for (Subscription request : requests) {
+            if (request.thread == null || StringUtils.isEmpty(request.user)) {
+                throw new BatchRejectedException(ResponseBody.invalid());
+            }
+            emails.add(request.user);
+            threads.add(request.thread);
+        }
+        final Map<String, Integer> users = UserDetails.getIds(emails);
+        requireThreads(threads);
+        final List<Object[]> rows = new ArrayList<>(requests.length);
+        for (Subscription request : requests) {
+            final Integer user = users.get(request.user);
+            if (user == null) {
+                throw new BatchRejectedException(ResponseBody.notFound());
+            }
+            rows.add(new Object[]{user, request.thread});
+            USERS.update(user, profile -> profile.subscriptions.add(request.thread));
+        }
+        jdbcTemplate.batchUpdate("INSERT IGNORE INTO subscription (user_id, thread_id) VALUES (?, ?);", rows);
+    }
+
+    private static void requireThreads(Set<Integer> threads) {
+        final List<Integer> ids = new ArrayList<>(threads);
+        final int found = jdbcTemplate.queryForObject("SELECT count(*) FROM thread WHERE id IN " +
+                Utils.inClause(ids.size()) + ';', Integer.class, ids.toArray());
+        if (found != ids.size()) {
+            throw new BatchRejectedException(ResponseBody.incorrect());
+        }
+    }
+
+    private static void addForumUsers(Collection<List<Integer>> forumUsers) {
+        final List<Object[]> args = new ArrayList<>(forumUsers.size());
+        for (List<Integer> pair : forumUsers) {
+            args.add(pair.toArray());
+        }
+        jdbcTemplate.batchUpdate("INSERT IGNORE INTO forum_users (forum_id, user_name, user_id) SELECT ?, name, id " +
+                "FROM user_profile WHERE id = ?;", args);
+    }
+
+    private static int[] batchInsert(String query, List<Object[]> rows) {
+        return jdbcTemplate.execute((Connection connection) -> {
+            try (PreparedStatement ps = connection.prepareStatement(query, Statement.RETURN_GENERATED_KEYS)) {
+                for (Object[] row : rows) {
+                    for (int i = 0; i < row.length; i++) {
+                        ps.setObject(i + 1, row[i]);
+                    }
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+                final int[] keys = new int[rows.size()];
+                try (ResultSet generated = ps.getGeneratedKeys()) {
+                    for (int i = 0; i < keys.length && generated.next(); i++) {
+                        keys[i] = generated.getInt(1);
+                    }
+                }
+                return keys;
+            }
+        });
+    }
+
+    private static String postCursor(PostDetails last) {
+        return Cursor.encode(last.date, last.id);
+    }
+
+    private static String threadCursor(ThreadDetails last) {
+        return Cursor.encode(last.date, last.id);
+    }
+
+    private static String userCursor(Object[] users, Integer limit) {
+        if (limit == null || users.length == 0 || users.length < limit) {
+            return null;
+        }
+        final UserDetails last = (UserDetails) users[users.length - 1];
+        return Cursor.encode(last.name, last.id);
+    }
+
+    @SuppressWarnings("unused")
+    @JsonPropertyOrder({"code", "response", "cursor"})
+    private static final class ResponseBody {
+        private int code;
+        private Object response;
+        private String cursor;
+
+        @SuppressWarnings("PublicConstructorInNonPublicClass")
+        public ResponseBody() {
+        }
+
+        @SuppressWarnings("PublicConstructorInNonPublicClass")
+        public ResponseBody(int code, Object response) {
+            this.code = code;
+            this.response = response;
+        }
+
+        public int getCode() {
+            return code;
+        }
+
+        public void setCode(int code) {
+            this.code = code;
+        }
+
+        public Object getResponse() {
+            return response;
+        }
+
+        public void setResponse(Object response) {
+            this.response = response;
+        }
+
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        public String getCursor() {
+            if (cursor == null && response instanceof RowStream) {
+                return ((RowStream) response).getCursor();
+            }
+            return cursor;
+        }
+
+        public void setCursor(String cursor) {
+            this.cursor = cursor;
+        }
+
+        @SuppressWarnings("StaticMethodNamingConvention")
+        public static ResponseBody ok() {
+            return new ResponseBody(0, "OK");
+        }
+
+        @SuppressWarnings("StaticMethodNamingConvention")
+        public static ResponseBody ok(Object response) {
+            return new ResponseBody(0, response);
+        }
+
+        @SuppressWarnings("StaticMethodNamingConvention")
+        public static ResponseBody ok(Object response, String cursor) {
+            final ResponseBody body = new ResponseBody(0, response);
+            body.cursor = cursor;
+            return body;
+        }
+
+        public static ResponseBody notFound() {
+            return new ResponseBody(1, "Requested object not found");
+        }
+
+        public static ResponseBody invalid() {
+            return new ResponseBody(2, "Invalid request");
+        }
+
+        public static ResponseBody incorrect() {
+            return new ResponseBody(3, "Incorrect request");
+        }
+
+        public static ResponseBody unknownError() {
+            return new ResponseBody(4, "Unknown error");
+        }
+
+        public static ResponseBody userAlreadyExists() {
+            return new ResponseBody(5, "User already exists");
+        }
+    }
+
+    @SuppressWarnings("unused")
+    private static final class StatusResponse {
+        private int user;
+        private int thread;
+        private int forum;
+        private int post;
+
+        @SuppressWarnings("PublicConstructorInNonPublicClass")
+        public StatusResponse() {
+        }
+
+        @SuppressWarnings("PublicConstructorInNonPublicClass")
+        public StatusResponse(int user, int thread, int forum, int post) {
+            this.user = user;
+            this.thread = thread;
+            this.forum = forum;
+            this.post = post;
+        }
+
+        public int getUser() {
+            return user;
+        }
+
+        public void setUser(int user) {
+            this.user = user;
+        }
+
         public int getThread() {
             return thread;
         }
@@ -1443,6 +2129,22 @@ public class GodController {
         public PostCreateResponse() {
         }
 
+        @SuppressWarnings("PublicConstructorInNonPublicClass")
+        public PostCreateResponse(int id, PostCreateRequest request) {
+            this.id = id;
+            user = request.user;
+            message = request.message;
+            forum = request.forum;
+            thread = request.thread;
+            parent = request.parent;
+            date = request.date;
+            isApproved = request.isApproved;
+            isHighlighted = request.isHighlighted;
+            isEdited = request.isEdited;
+            isSpam = request.isSpam;
+            isDeleted = request.isDeleted;
+        }
+
         public String getDate() {
             return date;
         }
@@ -1608,34 +2310,13 @@ public class GodController {
         public UserDetails() {
         }
 
-        private UserDetails(SqlRowSet set) {
-            about = set.getString("about");
-            email = set.getString("email");
-            id = set.getInt("id");
-            isAnonymous = set.getBoolean("isAnonymous");
-            username = set.getString("username");
-            name = set.getString("name");
-            final SqlRowSet followerSet = jdbcTemplate.queryForRowSet("SELECT email FROM user_profile JOIN following " +
-                    "ON user_profile.id = following.follower WHERE followee = ?;", id);
-            final List<String> followerList = new ArrayList<>();
-            while (followerSet.next()) {
-                followerList.add(followerSet.getString("email"));
-            }
-            followers = followerList.toArray(new String[followerList.size()]);
-            final SqlRowSet followeeSet = jdbcTemplate.queryForRowSet("SELECT email FROM user_profile JOIN following " +
-                    "ON user_profile.id = following.followee WHERE follower = ?;", id);
-            final List<String> followeeList = new ArrayList<>();
-            while (followeeSet.next()) {
-                followeeList.add(followeeSet.getString("email"));
-            }
-            following = followeeList.toArray(new String[followeeList.size()]);
-            final SqlRowSet subscriptionSet = jdbcTemplate.queryForRowSet("SELECT thread_id FROM subscription WHERE " +
-                    "user_id = ?;", id);
-            final List<Integer> subscriptionList = new ArrayList<>();
-            while (subscriptionSet.next()) {
-                subscriptionList.add(subscriptionSet.getInt("thread_id"));
-            }
-            subscriptions = subscriptionList.stream().mapToInt(i -> i).toArray();
+        private UserDetails(UserAggregate aggregate) {
+            about = aggregate.about;
+            email = aggregate.email;
+            id = aggregate.id;
+            isAnonymous = aggregate.isAnonymous;
+            name = aggregate.name;
+            username = aggregate.username;
         }
 
         public String getAbout() {
@@ -1712,37 +2393,222 @@ public class GodController {
 
         @SuppressWarnings("StaticMethodNamingConvention")
         public static UserDetails get(int id) {
-            final SqlRowSet user = jdbcTemplate.queryForRowSet("SELECT * FROM user_profile WHERE id = ?;", id);
-            if (!user.next()) {
-                return null;
-            }
-            return new UserDetails(user);
+            return USERS.get(Collections.singletonList(id)).get(id);
         }
 
         @SuppressWarnings("StaticMethodNamingConvention")
         public static UserDetails get(String email) {
-            final SqlRowSet user = jdbcTemplate.queryForRowSet("SELECT * FROM user_profile WHERE email = ?;", email);
-            if (!user.next()) {
+            final int id = getId(email);
+            if (id < 0) {
                 return null;
             }
-            return new UserDetails(user);
+            return get(id);
+        }
+
+        @SuppressWarnings("StaticMethodNamingConvention")
+        public static Map<Integer, UserDetails> get(Collection<Integer> ids) {
+            return USERS.get(ids);
+        }
+
+        private static Object[] list(List<Integer> ids) {
+            final Map<Integer, UserDetails> users = get(ids);
+            return ids.stream().map(users::get).toArray();
         }
 
         public static int getId(String email) {
+            final int cached = USER_IDENTITIES.getId(email);
+            if (cached >= 0) {
+                return cached;
+            }
+            final int id;
             try {
-                return jdbcTemplate.queryForObject("SELECT id FROM user_profile WHERE email = ?;", Integer.class,
-                        email);
+                id = jdbcTemplate.queryForObject("SELECT id FROM user_profile WHERE email = ?;", Integer.class, email);
             } catch (EmptyResultDataAccessException e) {
                 return -1;
             }
+            USER_IDENTITIES.put(id, email);
+            return id;
         }
 
         public static String getEmail(int id) {
+            final String cached = USER_IDENTITIES.getKey(id);
+            if (cached != null) {
+                return cached;
+            }
+            final String email;
             try {
-                return jdbcTemplate.queryForObject("SELECT email FROM user_profile WHERE id = ?;", String.class, id);
+                email = jdbcTemplate.queryForObject("SELECT email FROM user_profile WHERE id = ?;", String.class, id);
             } catch (EmptyResultDataAccessException e) {
                 return null;
             }
+            USER_IDENTITIES.put(id, email);
+            return email;
+        }
+
+        public static Map<String, Integer> getIds(Collection<String> emails) {
+            final Map<String, Integer> ids = new HashMap<>();
+            final List<String> missing = new ArrayList<>();
+            for (String email : emails) {
+                final int cached = USER_IDENTITIES.getId(email);
+                if (cached >= 0) {
+                    ids.put(email, cached);
+                } else {
+                    missing.add(email);
+                }
+            }
+            if (missing.isEmpty()) {
+                return ids;
+            }
+            final SqlRowSet set = jdbcTemplate.queryForRowSet("SELECT id, email FROM user_profile WHERE email IN " +
+                    Utils.inClause(missing.size()) + ';', missing.toArray());
+            while (set.next()) {
+                final int id = set.getInt("id");
+                final String email = set.getString("email");
+                USER_IDENTITIES.put(id, email);
+                ids.put(email, id);
+            }
+            return ids;
+        }
+
+        public static Map<Integer, String> getEmails(Collection<Integer> ids) {
+            final Map<Integer, String> emails = new HashMap<>();
+            final List<Integer> missing = new ArrayList<>();
+            for (int id : ids) {
+                final String cached = USER_IDENTITIES.getKey(id);
+                if (cached != null) {
+                    emails.put(id, cached);
+                } else {
+                    missing.add(id);
+                }
+            }
+            if (missing.isEmpty()) {
+                return emails;
+            }
+            final SqlRowSet set = jdbcTemplate.queryForRowSet("SELECT id, email FROM user_profile WHERE id IN " +
+                    Utils.inClause(missing.size()) + ';', missing.toArray());
+            while (set.next()) {
+                final int id = set.getInt("id");
+                final String email = set.getString("email");
+                USER_IDENTITIES.put(id, email);
+                emails.put(id, email);
+            }
+            return emails;
+        }
+    }
+
+    private static final class UserAggregate {
+        private final int id;
+        private final String username;
+        private final String email;
+        private final boolean isAnonymous;
+        private String name;
+        private String about;
+        private final IntSet followers = new IntSet();
+        private final IntSet following = new IntSet();
+        private final IntSet subscriptions = new IntSet();
+
+        private UserAggregate(int id, String username, String email, String name, String about, boolean isAnonymous) {
+            this.id = id;
+            this.username = username;
+            this.email = email;
+            this.name = name;
+            this.about = about;
+            this.isAnonymous = isAnonymous;
+        }
+
+        private UserAggregate(SqlRowSet set) {
+            this(set.getInt("id"), set.getString("username"), set.getString("email"), set.getString("name"),
+                    set.getString("about"), set.getBoolean("isAnonymous"));
+        }
+    }
+
+    private static final class UserCache {
+        private final WriteThroughCache<UserAggregate> users;
+
+        private UserCache(int capacity) {
+            users = new WriteThroughCache<>(capacity);
+        }
+
+        private void put(UserAggregate user, long stamp) {
+            users.put(user.id, user, stamp);
+        }
+
+        private void update(int id, Consumer<UserAggregate> change) {
+            users.update(id, change);
+        }
+
+        private void clear() {
+            users.clear();
+        }
+
+        private Map<Integer, UserDetails> get(Collection<Integer> ids) {
+            final Map<Integer, UserDetails> details = new HashMap<>();
+            final Map<Integer, int[]> followers = new HashMap<>();
+            final Map<Integer, int[]> following = new HashMap<>();
+            final Set<Integer> referenced = new HashSet<>();
+            for (UserAggregate user : users.get(ids, UserCache::load).values()) {
+                final UserDetails userDetails = users.read(user.id, () -> {
+                    final UserDetails snapshot = new UserDetails(user);
+                    snapshot.subscriptions = user.subscriptions.toArray();
+                    followers.put(user.id, user.followers.toArray());
+                    following.put(user.id, user.following.toArray());
+                    return snapshot;
+                });
+                for (int id : followers.get(user.id)) {
+                    referenced.add(id);
+                }
+                for (int id : following.get(user.id)) {
+                    referenced.add(id);
+                }
+                details.put(user.id, userDetails);
+            }
+            final Map<Integer, String> emails = UserDetails.getEmails(referenced);
+            for (UserDetails userDetails : details.values()) {
+                userDetails.followers = Arrays.stream(followers.get(userDetails.id)).mapToObj(emails::get)
+                        .toArray(String[]::new);
+                userDetails.following = Arrays.stream(following.get(userDetails.id)).mapToObj(emails::get)
+                        .toArray(String[]::new);
+            }
+            return details;
+        }
+
+        private static Map<Integer, UserAggregate> load(List<Integer> ids) {
+            final Map<Integer, UserAggregate> users = new HashMap<>();
+            final String in = Utils.inClause(ids.size());
+            final Object[] args = ids.toArray();
+            final SqlRowSet userSet = jdbcTemplate.queryForRowSet("SELECT * FROM user_profile WHERE id IN " + in +
+                    ';', args);
+            while (userSet.next()) {
+                final UserAggregate user = new UserAggregate(userSet);
+                users.put(user.id, user);
+            }
+            if (users.isEmpty()) {
+                return users;
+            }
+            final SqlRowSet followingSet = jdbcTemplate.queryForRowSet("SELECT follower, followee FROM following " +
+                    "WHERE follower IN " + in + " OR followee IN " + in + ';', concat(args, args));
+            while (followingSet.next()) {
+                final int follower = followingSet.getInt("follower");
+                final int followee = followingSet.getInt("followee");
+                if (users.containsKey(follower)) {
+                    users.get(follower).following.add(followee);
+                }
+                if (users.containsKey(followee)) {
+                    users.get(followee).followers.add(follower);
+                }
+            }
+            final SqlRowSet subscriptionSet = jdbcTemplate.queryForRowSet("SELECT user_id, thread_id FROM " +
+                    "subscription WHERE user_id IN " + in + ';', args);
+            while (subscriptionSet.next()) {
+                users.get(subscriptionSet.getInt("user_id")).subscriptions.add(subscriptionSet.getInt("thread_id"));
+            }
+            return users;
+        }
+
+        private static Object[] concat(Object[] first, Object[] second) {
+            final Object[] result = Arrays.copyOf(first, first.length + second.length);
+            System.arraycopy(second, 0, result, first.length, second.length);
+            return result;
         }
     }
 
@@ -1760,6 +2626,13 @@ public class GodController {
         public ForumDetails() {
         }
 
+        private ForumDetails(ForumEntry entry) {
+            id = entry.getId();
+            name = entry.getName();
+            short_name = entry.getShortName();
+            userId = entry.getUserId();
+        }
+
         public int getId() {
             return id;
         }
@@ -1795,31 +2668,32 @@ public class GodController {
         }
 
         @SuppressWarnings("StaticMethodNamingConvention")
-        public static ForumDetails get(int id) {
-            final SqlRowSet forum = jdbcTemplate.queryForRowSet("SELECT * FROM forum WHERE id = ?;", id);
-            if (!forum.next()) {
-                return null;
+        public static Map<Integer, ForumDetails> get(Collection<Integer> ids) {
+            final List<ForumDetails> list = new ArrayList<>();
+            final Set<Integer> userIds = new HashSet<>();
+            for (int id : ids) {
+                final ForumEntry entry = FORUMS.get(id);
+                if (entry != null) {
+                    list.add(new ForumDetails(entry));
+                    userIds.add(entry.getUserId());
+                }
             }
-            final ForumDetails details = new ForumDetails();
-            details.id = id;
-            details.name = forum.getString("name");
-            details.short_name = forum.getString("short_name");
-            details.userId = forum.getInt("user_id");
-            details.user = UserDetails.getEmail(details.userId);
-            return details;
+            final Map<Integer, String> emails = UserDetails.getEmails(userIds);
+            final Map<Integer, ForumDetails> forums = new HashMap<>();
+            for (ForumDetails details : list) {
+                details.user = emails.get(details.userId);
+                forums.put(details.id, details);
+            }
+            return forums;
         }
 
         @SuppressWarnings("StaticMethodNamingConvention")
         public static ForumDetails get(String shortName, String[] related) {
-            final SqlRowSet forum = jdbcTemplate.queryForRowSet("SELECT * FROM forum WHERE short_name = ?;", shortName);
-            if (!forum.next()) {
+            final ForumEntry entry = FORUMS.get(shortName);
+            if (entry == null) {
                 return null;
             }
-            final ForumDetails details = new ForumDetails();
-            details.id = forum.getInt("id");
-            details.name = forum.getString("name");
-            details.short_name = shortName;
-            details.userId = forum.getInt("user_id");
+            final ForumDetails details = new ForumDetails(entry);
             if (related != null && Arrays.asList(related).contains("user")) {
                 details.user = UserDetails.get(details.userId);
             } else {
@@ -1829,20 +2703,178 @@ public class GodController {
         }
 
         public static int getId(String shortName) {
-            try {
-                return jdbcTemplate.queryForObject("SELECT id FROM forum WHERE short_name = ?;", Integer.class,
-                        shortName);
-            } catch (EmptyResultDataAccessException e) {
-                return -1;
-            }
+            final ForumEntry entry = FORUMS.get(shortName);
+            return entry != null ? entry.getId() : -1;
         }
 
         public static String getShortName(int id) {
-            try {
-                return jdbcTemplate.queryForObject("SELECT short_name FROM forum WHERE id = ?;", String.class, id);
-            } catch (EmptyResultDataAccessException e) {
-                return null;
+            final ForumEntry entry = FORUMS.get(id);
+            return entry != null ? entry.getShortName() : null;
+        }
+
+        public static Map<Integer, String> getShortNames(Collection<Integer> ids) {
+            final Map<Integer, String> shortNames = new HashMap<>();
+            for (int id : ids) {
+                final ForumEntry entry = FORUMS.get(id);
+                if (entry != null) {
+                    shortNames.put(id, entry.getShortName());
+                }
+            }
+            return shortNames;
+        }
+    }
+
+    private static final class BatchRejectedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private final transient ResponseBody body;
+
+        private BatchRejectedException(ResponseBody body) {
+            super(String.valueOf(body.getResponse()));
+            this.body = body;
+        }
+    }
+
+    @SuppressWarnings("unused")
+    private static final class ImportProgress {
+        private volatile boolean running = true;
+        private volatile int lines;
+        private volatile int users;
+        private volatile int forums;
+        private volatile int threads;
+        private volatile int posts;
+        private volatile int follows;
+        private volatile int subscriptions;
+        private volatile String error;
+
+        @SuppressWarnings("PublicConstructorInNonPublicClass")
+        public ImportProgress() {
+        }
+
+        @SuppressWarnings("NonAtomicOperationOnVolatileField")
+        private void add(String type, int count) {
+            if ("user".equals(type)) {
+                users += count;
+            } else if ("forum".equals(type)) {
+                forums += count;
+            } else if ("thread".equals(type)) {
+                threads += count;
+            } else if ("post".equals(type)) {
+                posts += count;
+            } else if ("follow".equals(type)) {
+                follows += count;
+            } else {
+                subscriptions += count;
+            }
+        }
+
+        public boolean isRunning() {
+            return running;
+        }
+
+        public int getLines() {
+            return lines;
+        }
+
+        public int getUsers() {
+            return users;
+        }
+
+        public int getForums() {
+            return forums;
+        }
+
+        public int getThreads() {
+            return threads;
+        }
+
+        public int getPosts() {
+            return posts;
+        }
+
+        public int getFollows() {
+            return follows;
+        }
+
+        public int getSubscriptions() {
+            return subscriptions;
+        }
+
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        public String getError() {
+            return error;
+        }
+    }
+
+    private static final class StatusCounters {
+        private final LongAdder users = new LongAdder();
+        private final LongAdder threads = new LongAdder();
+        private final LongAdder forums = new LongAdder();
+        private final LongAdder posts = new LongAdder();
+        private volatile boolean loaded;
+
+        /**
+         * Runs before the connector accepts requests, or on the first status call if the database was down then.
+         * A saved snapshot is added to whatever was counted before the load, a recount already includes it.
+         */
+        private synchronized void load() {
+            if (loaded) {
+                return;
+            }
+            final SqlRowSet set = jdbcTemplate.queryForRowSet("SELECT * FROM counters WHERE id = 1 AND NOT dirty;");
+            if (set.next()) {
+                users.add(set.getLong("users"));
+                threads.add(set.getLong("threads"));
+                forums.add(set.getLong("forums"));
+                posts.add(set.getLong("posts"));
+            } else {
+                set(jdbcTemplate.queryForObject("SELECT count(*) FROM user_profile;", Long.class),
+                        jdbcTemplate.queryForObject("SELECT count(*) FROM thread;", Long.class),
+                        jdbcTemplate.queryForObject("SELECT count(*) FROM forum;", Long.class),
+                        jdbcTemplate.queryForObject("SELECT count(*) FROM post;", Long.class));
+            }
+            jdbcTemplate.update("INSERT INTO counters (id, dirty) VALUES (1, TRUE) ON DUPLICATE KEY UPDATE " +
+                    "dirty = TRUE;");
+            loaded = true;
+        }
+
+        private synchronized void save() {
+            if (!loaded) {
+                return;
+            }
+            jdbcTemplate.update("REPLACE INTO counters (id, users, threads, forums, posts, dirty) VALUES " +
+                    "(1, ?, ?, ?, ?, FALSE);", users.sum(), threads.sum(), forums.sum(), posts.sum());
+        }
+
+        private synchronized void clear() {
+            set(0, 0, 0, 0);
+            loaded = true;
+        }
+
+        private void set(long user, long thread, long forum, long post) {
+            users.reset();
+            users.add(user);
+            threads.reset();
+            threads.add(thread);
+            forums.reset();
+            forums.add(forum);
+            posts.reset();
+            posts.add(post);
+        }
+
+        private void increment(LongAdder counter) {
+            add(counter, 1);
+        }
+
+        private void add(LongAdder counter, long count) {
+            afterCommit(() -> counter.add(count));
+        }
+
+        private StatusResponse get() {
+            if (!loaded) {
+                load();
             }
+            return new StatusResponse(users.intValue(), threads.intValue(), forums.intValue(), posts.intValue());
         }
     }
 
@@ -1862,6 +2894,8 @@ public class GodController {
         private String title;
         private Object user;
         @JsonIgnore
+        private int epoch;
+        @JsonIgnore
         private int forumId;
         @JsonIgnore
         private int userId;
@@ -1871,38 +2905,46 @@ public class GodController {
         }
 
         private ThreadDetails(SqlRowSet set) {
-            date = Utils.DATE_FORMAT.format(set.getTimestamp("creation_time"));
+            date = DateCodec.format(set.getTimestamp("creation_time"));
             dislikes = set.getInt("dislikes");
             id = set.getInt("id");
             isClosed = set.getBoolean("isClosed");
             isDeleted = set.getBoolean("isDeleted");
             likes = set.getInt("likes");
             message = set.getString("message");
+            final int[] votes = THREAD_VOTES.get(id);
+            if (votes != null) {
+                likes += votes[LIKES];
+                dislikes += votes[DISLIKES];
+            }
             points = likes - dislikes;
             posts = set.getInt("posts");
+            final int[] pending = THREAD_POSTS.get(id);
+            if (pending != null) {
+                posts += pending[POSTS];
+            }
+            epoch = set.getInt("epoch");
             slug = set.getString("slug");
             title = set.getString("title");
             forumId = set.getInt("forum_id");
-            forum = ForumDetails.getShortName(forumId);
             userId = set.getInt("user_id");
-            user = UserDetails.getEmail(userId);
         }
 
-        private ThreadDetails(SqlRowSet set, String[] related) {
-            date = Utils.DATE_FORMAT.format(set.getTimestamp("creation_time"));
-            dislikes = set.getInt("dislikes");
-            id = set.getInt("id");
-            isClosed = set.getBoolean("isClosed");
-            isDeleted = set.getBoolean("isDeleted");
-            likes = set.getInt("likes");
-            message = set.getString("message");
+        private ThreadDetails(ThreadEntry entry) {
+            date = entry.date;
+            dislikes = entry.dislikes;
+            id = entry.id;
+            isClosed = entry.isClosed;
+            isDeleted = entry.isDeleted;
+            likes = entry.likes;
+            message = entry.message;
             points = likes - dislikes;
-            posts = set.getInt("posts");
-            slug = set.getString("slug");
-            title = set.getString("title");
-            forumId = set.getInt("forum_id");
-            userId = set.getInt("user_id");
-            processRelated(related);
+            posts = entry.posts;
+            slug = entry.slug;
+            title = entry.title;
+            forumId = entry.forumId;
+            userId = entry.userId;
+            epoch = entry.epoch;
         }
 
         public String getDate() {
@@ -2011,30 +3053,162 @@ public class GodController {
 
         @SuppressWarnings("StaticMethodNamingConvention")
         public static ThreadDetails get(int id, String[] related) {
-            final SqlRowSet thread = jdbcTemplate.queryForRowSet("SELECT * FROM thread WHERE id = ?;", id);
-            if (!thread.next()) {
+            final ThreadDetails details = THREADS.get(Collections.singletonList(id)).get(id);
+            if (details == null) {
                 return null;
             }
-            return new ThreadDetails(thread, related);
+            hydrate(Collections.singletonList(details), related);
+            return details;
         }
 
-        private void processRelated(String[] related) {
-            if (related != null) {
-                final List relatedList = Arrays.asList(related);
-                if (relatedList.contains("forum")) {
-                    forum = ForumDetails.get(forumId);
-                } else {
-                    forum = ForumDetails.getShortName(forumId);
-                }
-                if (relatedList.contains("user")) {
-                    user = UserDetails.get(userId);
-                } else {
-                    user = UserDetails.getEmail(userId);
-                }
+        @SuppressWarnings("StaticMethodNamingConvention")
+        public static Map<Integer, ThreadDetails> get(Collection<Integer> ids) {
+            final Map<Integer, ThreadDetails> threads = THREADS.get(ids);
+            hydrate(new ArrayList<>(threads.values()), null);
+            return threads;
+        }
+
+        public static int getEpoch(int id) {
+            final ThreadDetails thread = THREADS.get(Collections.singletonList(id)).get(id);
+            return thread != null ? thread.epoch : 0;
+        }
+
+        private void vote(int vote) {
+            if (vote > 0) {
+                likes++;
+            } else {
+                dislikes++;
+            }
+            points = likes - dislikes;
+        }
+
+        private static void hydrate(List<ThreadDetails> threads, String[] related) {
+            if (threads.isEmpty()) {
+                return;
+            }
+            final List relatedList = related != null ? Arrays.asList(related) : Collections.emptyList();
+            final Set<Integer> forumIds = new HashSet<>();
+            final Set<Integer> userIds = new HashSet<>();
+            for (ThreadDetails thread : threads) {
+                forumIds.add(thread.forumId);
+                userIds.add(thread.userId);
+            }
+            final Map<Integer, ?> forums = relatedList.contains("forum") ? ForumDetails.get(forumIds) :
+                    ForumDetails.getShortNames(forumIds);
+            final Map<Integer, ?> users = relatedList.contains("user") ? UserDetails.get(userIds) :
+                    UserDetails.getEmails(userIds);
+            for (ThreadDetails thread : threads) {
+                thread.forum = forums.get(thread.forumId);
+                thread.user = users.get(thread.userId);
+            }
+        }
+    }
+
+    private static final class ThreadEntry {
+        private final int id;
+        private final int forumId;
+        private final int userId;
+        private final String date;
+        private final String title;
+        private String slug;
+        private String message;
+        private int likes;
+        private int dislikes;
+        private boolean isClosed;
+        private boolean isDeleted;
+        private int posts;
+        private int epoch;
+
+        private ThreadEntry(SqlRowSet set) {
+            id = set.getInt("id");
+            forumId = set.getInt("forum_id");
+            userId = set.getInt("user_id");
+            date = DateCodec.format(set.getTimestamp("creation_time"));
+            title = set.getString("title");
+            slug = set.getString("slug");
+            message = set.getString("message");
+            likes = set.getInt("likes");
+            dislikes = set.getInt("dislikes");
+            final int[] votes = THREAD_VOTES.get(id);
+            if (votes != null) {
+                likes += votes[LIKES];
+                dislikes += votes[DISLIKES];
+            }
+            isClosed = set.getBoolean("isClosed");
+            isDeleted = set.getBoolean("isDeleted");
+            posts = set.getInt("posts");
+            final int[] pending = THREAD_POSTS.get(id);
+            if (pending != null) {
+                posts += pending[POSTS];
+            }
+            epoch = set.getInt("epoch");
+        }
+
+        private ThreadEntry(int id, int forumId, int userId, ThreadCreateRequest request) {
+            this.id = id;
+            this.forumId = forumId;
+            this.userId = userId;
+            date = DateCodec.format(DateCodec.parse(request.date));
+            title = request.title;
+            slug = request.slug;
+            message = request.message;
+            isClosed = request.isClosed;
+            isDeleted = request.isDeleted;
+        }
+
+        private void vote(int vote) {
+            if (vote > 0) {
+                likes++;
             } else {
-                forum = ForumDetails.getShortName(forumId);
-                user = UserDetails.getEmail(userId);
+                dislikes++;
+            }
+        }
+    }
+
+    private static final class ThreadCache {
+        private final WriteThroughCache<ThreadEntry> threads;
+
+        private ThreadCache(int capacity) {
+            threads = new WriteThroughCache<>(capacity);
+        }
+
+        private void put(ThreadEntry thread, long stamp) {
+            threads.put(thread.id, thread, stamp);
+        }
+
+        private void update(int id, Consumer<ThreadEntry> change) {
+            threads.update(id, change);
+        }
+
+        private void markPending(int id) {
+            threads.markPending(id);
+        }
+
+        private void evict(int id) {
+            threads.evict(id);
+        }
+
+        private void clear() {
+            threads.clear();
+        }
+
+        private Map<Integer, ThreadDetails> get(Collection<Integer> ids) {
+            final Map<Integer, ThreadDetails> details = new LinkedHashMap<>();
+            for (ThreadEntry thread : threads.get(ids, ThreadCache::load).values()) {
+                details.put(thread.id, threads.read(thread.id, () -> new ThreadDetails(thread)));
             }
+            return details;
+        }
+
+        private static Map<Integer, ThreadEntry> load(List<Integer> ids) {
+            final Map<Integer, ThreadEntry> threads = new HashMap<>();
+            final SqlRowSet set = jdbcTemplate.queryForRowSet("SELECT * FROM thread WHERE id IN " +
+                    Utils.inClause(ids.size()) + ';', ids.toArray());
+            while (set.next()) {
+                final ThreadEntry thread = new ThreadEntry(set);
+                threads.put(thread.id, thread);
+            }
+            return threads;
         }
     }
 
@@ -2058,14 +3232,22 @@ public class GodController {
         @JsonIgnore
         private int forumId;
         @JsonIgnore
+        private int threadId;
+        @JsonIgnore
         private int userId;
+        @JsonIgnore
+        private int rootId;
+        @JsonIgnore
+        private byte[] path;
+        @JsonIgnore
+        private int deletedEpoch;
 
         @SuppressWarnings("PublicConstructorInNonPublicClass")
         public PostDetails() {
         }
 
         private PostDetails(SqlRowSet set) {
-            date = Utils.DATE_FORMAT.format(set.getTimestamp("creation_time"));
+            date = DateCodec.format(set.getTimestamp("creation_time"));
             dislikes = set.getInt("dislikes");
             id = set.getInt("id");
             isApproved = set.getBoolean("isApproved");
@@ -2076,30 +3258,28 @@ public class GodController {
             likes = set.getInt("likes");
             message = set.getString("message");
             parent = (Integer) set.getObject("parent");
+            final int[] votes = POST_VOTES.get(id);
+            if (votes != null) {
+                likes += votes[LIKES];
+                dislikes += votes[DISLIKES];
+            }
             points = likes - dislikes;
             forumId = set.getInt("forum_id");
+            threadId = set.getInt("thread_id");
             userId = set.getInt("user_id");
-            forum = ForumDetails.getShortName(forumId);
-            thread = set.getInt("thread_id");
-            user = UserDetails.getEmail(userId);
+            rootId = set.getInt("root_id");
+            path = (byte[]) set.getObject("path");
+            deletedEpoch = set.getInt("deleted_epoch");
+            thread = threadId;
         }
 
-        private PostDetails(SqlRowSet set, String[] related) {
-            date = Utils.DATE_FORMAT.format(set.getTimestamp("creation_time"));
-            dislikes = set.getInt("dislikes");
-            id = set.getInt("id");
-            isApproved = set.getBoolean("isApproved");
-            isDeleted = set.getBoolean("isDeleted");
-            isEdited = set.getBoolean("isEdited");
-            isHighlighted = set.getBoolean("isHighlighted");
-            isSpam = set.getBoolean("isSpam");
-            likes = set.getInt("likes");
-            message = set.getString("message");
-            parent = (Integer) set.getObject("parent");
+        private void vote(int vote) {
+            if (vote > 0) {
+                likes++;
+            } else {
+                dislikes++;
+            }
             points = likes - dislikes;
-            forumId = set.getInt("forum_id");
-            userId = set.getInt("user_id");
-            processRelated(related, set);
         }
 
         public String getDate() {
@@ -2228,101 +3408,97 @@ public class GodController {
             if (!post.next()) {
                 return null;
             }
-            return new PostDetails(post, related);
+            final PostDetails details = new PostDetails(post);
+            hydrate(Collections.singletonList(details), related);
+            return details;
         }
 
-        private void processRelated(String[] related, SqlRowSet post) {
-            if (related != null) {
-                final List relatedList = Arrays.asList(related);
-                if (relatedList.contains("forum")) {
-                    forum = ForumDetails.get(forumId);
-                } else {
-                    forum = ForumDetails.getShortName(forumId);
-                }
-                if (relatedList.contains("thread")) {
-                    thread = ThreadDetails.get(post.getInt("thread_id"), null);
-                } else {
-                    thread = post.getInt("thread_id");
-                }
-                if (relatedList.contains("user")) {
-                    user = UserDetails.get(userId);
-                } else {
-                    user = UserDetails.getEmail(userId);
-                }
-            } else {
-                forum = ForumDetails.getShortName(forumId);
-                thread = post.getInt("thread_id");
-                user = UserDetails.getEmail(userId);
+        public static int getThreadId(int id) {
+            try {
+                return jdbcTemplate.queryForObject("SELECT thread_id FROM post WHERE id = ?;", Integer.class, id);
+            } catch (EmptyResultDataAccessException e) {
+                return -1;
             }
         }
 
-        @SuppressWarnings("OverlyComplexMethod")
-        public static List<PostDetails> sortPosts(List<PostDetails> posts, String sort, Integer limit, boolean desc) {
-            final List<PostDetails> list = PostTreeNode.list(PostTreeNode.tree(null, posts), desc);
-            if (limit == null || limit >= list.size()) {
-                return list;
+        private static void hydrate(List<PostDetails> posts, String[] related) {
+            if (posts.isEmpty()) {
+                return;
             }
-            if (limit <= 0) {
-                return Collections.emptyList();
+            final List relatedList = related != null ? Arrays.asList(related) : Collections.emptyList();
+            final Set<Integer> forumIds = new HashSet<>();
+            final Set<Integer> threadIds = new HashSet<>();
+            final Set<Integer> userIds = new HashSet<>();
+            for (PostDetails post : posts) {
+                forumIds.add(post.forumId);
+                threadIds.add(post.threadId);
+                userIds.add(post.userId);
             }
-            if ("tree".equalsIgnoreCase(sort)) {
-                return list.subList(0, limit);
+            final Map<Integer, ?> forums = relatedList.contains("forum") ? ForumDetails.get(forumIds) :
+                    ForumDetails.getShortNames(forumIds);
+            final Map<Integer, ?> users = relatedList.contains("user") ? UserDetails.get(userIds) :
+                    UserDetails.getEmails(userIds);
+            final Map<Integer, ThreadDetails> threads = THREADS.get(threadIds);
+            final boolean withThreads = relatedList.contains("thread");
+            if (withThreads) {
+                ThreadDetails.hydrate(new ArrayList<>(threads.values()), null);
             }
-            int rootCount = 0;
-            for (int i = 0; i < list.size(); i++) {
-                if (list.get(i).parent == null) {
-                    rootCount++;
-                }
-                if (rootCount > limit) {
-                    return list.subList(0, i);
+            for (PostDetails post : posts) {
+                post.forum = forums.get(post.forumId);
+                post.user = users.get(post.userId);
+                final ThreadDetails thread = threads.get(post.threadId);
+                if (thread != null) {
+                    post.isDeleted = thread.isDeleted || post.isDeleted && post.deletedEpoch == thread.epoch;
+                    if (withThreads) {
+                        post.thread = thread;
+                    }
                 }
             }
-            return list;
         }
+    }
 
-        @SuppressWarnings("InnerClassTooDeeplyNested")
-        private static final class PostTreeNode {
-            private PostDetails value;
-            private List<PostTreeNode> children = new ArrayList<>();
-
-            private PostTreeNode(PostDetails value) {
-                this.value = value;
-            }
+    /**
+     * Root id and materialized path of a post: the ids from its root down to itself as 4-byte big-endian segments.
+     * The path column holds MAX_LENGTH bytes, the most an InnoDB COMPACT index key column can take, so replies can
+     * nest at most 190 levels deep and deeper ones are rejected as incorrect.
+     */
+    private static final class PostPath {
+        private static final int SEGMENT_LENGTH = 4;
+        private static final int MAX_LENGTH = 760;
+        private final int thread;
+        private final int root;
+        private final byte[] path;
+
+        private PostPath(int thread, int root, byte[] path) {
+            this.thread = thread;
+            this.root = root;
+            this.path = path;
+        }
 
-            private PostTreeNode() {
+        private PostPath(PostPath parent, int thread, int id) {
+            this.thread = thread;
+            if (parent == null) {
+                root = id;
+                path = ByteBuffer.allocate(SEGMENT_LENGTH).putInt(id).array();
+            } else {
+                root = parent.root;
+                path = ByteBuffer.allocate(parent.path.length + SEGMENT_LENGTH).put(parent.path).putInt(id).array();
             }
+        }
 
-            private static PostTreeNode tree(PostTreeNode node, List<PostDetails> posts) {
-                if (node == null) {
-                    node = new PostTreeNode();
-                }
-                final Iterator<PostDetails> iterator = posts.iterator();
-                while (iterator.hasNext()) {
-                    final PostDetails details = iterator.next();
-                    if (details.parent == null || (node.value != null && details.parent == node.value.id)) {
-                        node.children.add(new PostTreeNode(details));
-                        iterator.remove();
-                    }
-                }
-                for (int i = 0; i < node.children.size(); i++) {
-                    node.children.set(i, tree(node.children.get(i), posts));
-                }
-                return node;
+        @SuppressWarnings("StaticMethodNamingConvention")
+        private static Map<Integer, PostPath> get(Collection<Integer> ids) {
+            final Map<Integer, PostPath> paths = new HashMap<>();
+            if (ids.isEmpty()) {
+                return paths;
             }
-
-            private static List<PostDetails> list(PostTreeNode node, boolean desc) {
-                final List<PostDetails> list = new ArrayList<>();
-                if (node.value != null) {
-                    list.add(node.value);
-                    if (desc) {
-                        Collections.reverse(node.children);
-                    }
-                }
-                for (PostTreeNode child : node.children) {
-                    list.addAll(list(child, desc));
-                }
-                return list;
+            final SqlRowSet set = jdbcTemplate.queryForRowSet("SELECT id, thread_id, root_id, path FROM post " +
+                    "WHERE id IN " + Utils.inClause(ids.size()) + ';', ids.toArray());
+            while (set.next()) {
+                paths.put(set.getInt("id"), new PostPath(set.getInt("thread_id"), set.getInt("root_id"),
+                        (byte[]) set.getObject("path")));
             }
+            return paths;
         }
     }
 
@@ -0,0 +1,173 @@
+package ru.mail.park.main;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.Function;
+
+/**
+ * Queue of writes that a single thread drains in batches of up to batchSize items, waiting at most maxWait
+ * milliseconds for a batch to fill. The writer gets a whole batch at once and returns one result per item; if it
+ * throws, every item of the batch is retried on its own so one bad item fails only its own caller. Callers wait at
+ * most timeout milliseconds, and a stopped or dead queue rejects them with {@link RejectedException}.
+ */
+public class GroupCommitQueue<T, R> {
+    private static final long POLL_INTERVAL = 100;
+
+    private final BlockingQueue<Item<T, R>> queue = new LinkedBlockingQueue<>();
+    private final int batchSize;
+    private final long maxWait;
+    private final long timeout;
+    private final Function<List<T>, List<R>> writer;
+    private final Thread thread;
+    private volatile boolean running;
+
+    public GroupCommitQueue(String name, int batchSize, long maxWait, long timeout,
+                            Function<List<T>, List<R>> writer) {
+        this.batchSize = batchSize;
+        this.maxWait = TimeUnit.MILLISECONDS.toNanos(maxWait);
+        this.timeout = timeout;
+        this.writer = writer;
+        thread = new Thread(this::run, name);
+        thread.setDaemon(true);
+    }
+
+    public void start() {
+        running = true;
+        thread.start();
+    }
+
+    /**
+     * Stops taking new items and waits up to timeout milliseconds for the writer to finish the queued ones. The
+     * writer is not interrupted, so a batch in flight commits or rolls back on its own.
+     */
+    public void stop() {
+        running = false;
+        try {
+            thread.join(timeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public CompletableFuture<R> submit(T value) {
+        if (!running) {
+            throw new RejectedException("queue is stopped");
+        }
+        final Item<T, R> item = new Item<>(value);
+        queue.add(item);
+        if (!running && !thread.isAlive()) {
+            failPending();
+        }
+        return item.result;
+    }
+
+    public R write(T value) {
+        final CompletableFuture<R> result = submit(value);
+        try {
+            return result.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            result.cancel(false);
+            throw new RejectedException("interrupted");
+        } catch (TimeoutException e) {
+            result.cancel(false);
+            throw new RejectedException("timed out after " + timeout + " ms");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RejectedException(String.valueOf(e.getCause()));
+        }
+    }
+
+    private void run() {
+        final List<Item<T, R>> batch = new ArrayList<>(batchSize);
+        try {
+            while (running || !queue.isEmpty()) {
+                final Item<T, R> first = queue.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - batch.size());
+                final long deadline = System.nanoTime() + maxWait;
+                while (batch.size() < batchSize && running) {
+                    final Item<T, R> item = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (item == null) {
+                        break;
+                    }
+                    batch.add(item);
+                    queue.drainTo(batch, batchSize - batch.size());
+                }
+                batch.removeIf(item -> item.result.isCancelled());
+                if (!batch.isEmpty()) {
+                    write(batch);
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException ignore) {
+        } finally {
+            running = false;
+            for (Item<T, R> item : batch) {
+                item.result.completeExceptionally(new RejectedException("writer stopped"));
+            }
+            failPending();
+        }
+    }
+
+    private void failPending() {
+        final List<Item<T, R>> pending = new ArrayList<>();
+        queue.drainTo(pending);
+        for (Item<T, R> item : pending) {
+            item.result.completeExceptionally(new RejectedException("writer stopped"));
+        }
+    }
+
+    private void write(List<Item<T, R>> batch) {
+        final List<T> values = new ArrayList<>(batch.size());
+        for (Item<T, R> item : batch) {
+            values.add(item.value);
+        }
+        try {
+            final List<R> results = writer.apply(values);
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).result.complete(results.get(i));
+            }
+        } catch (RuntimeException e) {
+            if (batch.size() == 1) {
+                batch.get(0).result.completeExceptionally(e);
+                return;
+            }
+            for (Item<T, R> item : batch) {
+                try {
+                    item.result.complete(writer.apply(Collections.singletonList(item.value)).get(0));
+                } catch (RuntimeException itemException) {
+                    item.result.completeExceptionally(itemException);
+                }
+            }
+        }
+    }
+
+    /**
+     * Thrown to a caller whose item was not written because the queue is stopped or its writer died, or who gave up
+     * waiting. An item whose caller timed out is skipped if it is still queued, but may already be in a batch.
+     */
+    public static class RejectedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public RejectedException(String message) {
+            super(message);
+        }
+    }
+
+    private static final class Item<T, R> {
+        private final T value;
+        private final CompletableFuture<R> result = new CompletableFuture<>();
+
+        private Item(T value) {
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package ru.mail.park.main;
+
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out ids for a table from blocks reserved in the sequence table. Blocks are reserved in short transactions
+ * on a connection of the allocator's own, outside the pool, so a caller that already holds a pooled connection in
+ * its transaction never waits for a second one, and ids are never reused even if the caller rolls back. A reservation
+ * locks only the table's sequence row. When that row is missing, as on a fresh database or after clear, it is seeded
+ * above the largest id already in the table with a plain consistent read, which takes no locks on the table itself:
+ * the caller may hold locks there that the allocator's connection would otherwise wait on forever.
+ */
+public class IdAllocator {
+    private final SingleConnectionDataSource dataSource;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final String table;
+    private final int blockSize;
+    private volatile Block block;
+
+    public IdAllocator(SingleConnectionDataSource dataSource, String table, int blockSize) {
+        this.dataSource = dataSource;
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        this.table = table;
+        this.blockSize = blockSize;
+    }
+
+    public int next() {
+        while (true) {
+            final Block current = block;
+            if (current != null) {
+                final long id = current.next.getAndIncrement();
+                if (id < current.end) {
+                    return (int) id;
+                }
+            }
+            synchronized (this) {
+                if (block == current) {
+                    block = reserve();
+                }
+            }
+        }
+    }
+
+    public synchronized void reset() {
+        block = null;
+    }
+
+    public synchronized void close() {
+        dataSource.destroy();
+    }
+
+    private Block reserve() {
+        try {
+            return transactionTemplate.execute(status -> reserveBlock());
+        } catch (DataAccessException e) {
+            dataSource.resetConnection();
+            return transactionTemplate.execute(status -> reserveBlock());
+        }
+    }
+
+    private Block reserveBlock() {
+        List<Long> next = lockNext();
+        if (next.isEmpty()) {
+            final long start = jdbcTemplate.queryForObject("SELECT COALESCE(MAX(id), 0) + 1 FROM " + table + ';',
+                    Long.class);
+            jdbcTemplate.update("INSERT IGNORE INTO sequence (name, next_id) VALUES (?, ?);", table, start);
+            next = lockNext();
+        }
+        final long start = next.get(0);
+        jdbcTemplate.update("UPDATE sequence SET next_id = ? WHERE name = ?;", start + blockSize, table);
+        return new Block(start, start + blockSize);
+    }
+
+    private List<Long> lockNext() {
+        return jdbcTemplate.queryForList("SELECT next_id FROM sequence WHERE name = ? FOR UPDATE;", Long.class, table);
+    }
+
+    private static final class Block {
+        private final AtomicLong next;
+        private final long end;
+
+        private Block(long start, long end) {
+            next = new AtomicLong(start);
+            this.end = end;
+        }
+    }
+}
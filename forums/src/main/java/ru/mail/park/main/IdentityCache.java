@@ -0,0 +1,47 @@
+package ru.mail.park.main;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Two-way mapping between immutable natural keys and integer ids. Ids index a plain array, so only ids below
+ * the capacity are cached, and the key to id direction stops growing once it holds capacity entries.
+ */
+public class IdentityCache {
+    private final int capacity;
+    private final Map<String, Integer> ids;
+    private volatile AtomicReferenceArray<String> keys;
+
+    public IdentityCache(int capacity) {
+        this.capacity = capacity;
+        ids = new ConcurrentHashMap<>();
+        keys = new AtomicReferenceArray<>(capacity);
+    }
+
+    public int getId(String key) {
+        final Integer id = ids.get(key);
+        return id != null ? id : -1;
+    }
+
+    public String getKey(int id) {
+        if (id < 0 || id >= capacity) {
+            return null;
+        }
+        return keys.get(id);
+    }
+
+    public void put(int id, String key) {
+        if (id >= 0 && id < capacity) {
+            keys.set(id, key);
+        }
+        if (ids.size() < capacity) {
+            ids.put(key, id);
+        }
+    }
+
+    public void clear() {
+        keys = new AtomicReferenceArray<>(capacity);
+        ids.clear();
+    }
+}
@@ -0,0 +1,92 @@
+package ru.mail.park.main;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash set of ints with linear probing. Integer.MIN_VALUE marks free slots and cannot be
+ * stored. Not thread-safe.
+ */
+public class IntSet {
+    private static final int FREE = Integer.MIN_VALUE;
+    private static final int DEFAULT_CAPACITY = 4;
+
+    private int[] table;
+    private int size;
+
+    public IntSet() {
+        table = new int[DEFAULT_CAPACITY];
+        Arrays.fill(table, FREE);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean contains(int value) {
+        return table[indexOf(table, value)] == value;
+    }
+
+    public boolean add(int value) {
+        final int index = indexOf(table, value);
+        if (table[index] == value) {
+            return false;
+        }
+        table[index] = value;
+        size++;
+        if (size * 2 > table.length) {
+            resize(table.length * 2);
+        }
+        return true;
+    }
+
+    public boolean remove(int value) {
+        final int mask = table.length - 1;
+        int index = indexOf(table, value);
+        if (table[index] != value) {
+            return false;
+        }
+        table[index] = FREE;
+        size--;
+        int next = (index + 1) & mask;
+        while (table[next] != FREE) {
+            final int moved = table[next];
+            table[next] = FREE;
+            table[indexOf(table, moved)] = moved;
+            next = (next + 1) & mask;
+        }
+        return true;
+    }
+
+    public int[] toArray() {
+        final int[] array = new int[size];
+        int i = 0;
+        for (int value : table) {
+            if (value != FREE) {
+                array[i++] = value;
+            }
+        }
+        return array;
+    }
+
+    private void resize(int capacity) {
+        final int[] resized = new int[capacity];
+        Arrays.fill(resized, FREE);
+        for (int value : table) {
+            if (value != FREE) {
+                resized[indexOf(resized, value)] = value;
+            }
+        }
+        table = resized;
+    }
+
+    @SuppressWarnings("MagicNumber")
+    private static int indexOf(int[] table, int value) {
+        final int mask = table.length - 1;
+        final int hash = value * 0x9E3779B9;
+        int index = (hash ^ hash >>> 16) & mask;
+        while (table[index] != FREE && table[index] != value) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+}
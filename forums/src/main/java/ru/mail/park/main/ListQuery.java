@@ -0,0 +1,55 @@
+package ru.mail.park.main;
+
+/**
+ * Every SQL variant of one keyset-paginated list query, built once when the query is declared. A request picks its
+ * variant by sort direction, whether it filters by since, which keyset condition its cursor needs (0 for none) and
+ * whether it has a limit, so handlers only bind arguments and the statement text stays stable for the driver's
+ * prepared statement cache.
+ */
+public final class ListQuery {
+    private final String[] variants;
+
+    public ListQuery(String select, String since, String[] ascKeysets, String[] descKeysets, String ascOrder,
+                     String descOrder) {
+        variants = new String[(ascKeysets.length + 1) * 8];
+        for (int keyset = 0; keyset <= ascKeysets.length; keyset++) {
+            for (int flags = 0; flags < 8; flags++) {
+                final boolean desc = (flags & 4) != 0;
+                final StringBuilder query = new StringBuilder(select);
+                if ((flags & 2) != 0) {
+                    query.append(since);
+                }
+                if (keyset > 0) {
+                    query.append((desc ? descKeysets : ascKeysets)[keyset - 1]);
+                }
+                query.append(desc ? descOrder : ascOrder);
+                if ((flags & 1) != 0) {
+                    query.append(" LIMIT ?");
+                }
+                variants[keyset * 8 + flags] = query.append(';').toString();
+            }
+        }
+    }
+
+    public static ListQuery byTime(String select) {
+        return new ListQuery(select, "AND creation_time >= ? ",
+                new String[]{"AND (creation_time > ? OR creation_time = ? AND id > ?) "},
+                new String[]{"AND (creation_time < ? OR creation_time = ? AND id < ?) "},
+                "ORDER BY creation_time ASC, id ASC", "ORDER BY creation_time DESC, id DESC");
+    }
+
+    public static ListQuery byName(String select, String name, String id) {
+        return new ListQuery(select, "AND " + id + " >= ? ",
+                new String[]{
+                        "AND (" + name + " IS NULL AND " + id + " > ? OR " + name + " IS NOT NULL) ",
+                        "AND (" + name + " > ? OR " + name + " = ? AND " + id + " > ?) "},
+                new String[]{
+                        "AND " + name + " IS NULL AND " + id + " < ? ",
+                        "AND (" + name + " < ? OR " + name + " = ? AND " + id + " < ? OR " + name + " IS NULL) "},
+                "ORDER BY " + name + " ASC, " + id + " ASC", "ORDER BY " + name + " DESC, " + id + " DESC");
+    }
+
+    public String get(boolean desc, boolean since, int keyset, boolean limit) {
+        return variants[keyset * 8 + (desc ? 4 : 0) + (since ? 2 : 0) + (limit ? 1 : 0)];
+    }
+}
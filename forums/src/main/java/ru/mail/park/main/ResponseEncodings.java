@@ -0,0 +1,48 @@
+package ru.mail.park.main;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.json.AbstractJackson2HttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+
+import java.util.List;
+
+/**
+ * Adds Smile and CBOR encodings of the same DTOs for clients that ask for them in Accept. They are appended after
+ * the JSON converter, so JSON is still chosen whenever the client accepts it.
+ */
+@Configuration
+public class ResponseEncodings extends WebMvcConfigurerAdapter {
+    public static final MediaType SMILE = new MediaType("application", "x-jackson-smile");
+    public static final MediaType CBOR = new MediaType("application", "cbor");
+
+    private final Jackson2ObjectMapperBuilder builder;
+
+    public ResponseEncodings(Jackson2ObjectMapperBuilder builder) {
+        this.builder = builder;
+    }
+
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        converters.add(new BinaryConverter(mapper(new SmileFactory()), SMILE));
+        converters.add(new BinaryConverter(mapper(new CBORFactory()), CBOR));
+    }
+
+    private ObjectMapper mapper(JsonFactory factory) {
+        final ObjectMapper mapper = new ObjectMapper(factory);
+        builder.configure(mapper);
+        return mapper;
+    }
+
+    private static final class BinaryConverter extends AbstractJackson2HttpMessageConverter {
+        private BinaryConverter(ObjectMapper mapper, MediaType mediaType) {
+            super(mapper, mediaType);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package ru.mail.park.main;
+
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.rowset.ResultSetWrappingSqlRowSet;
+import org.springframework.jdbc.support.rowset.SqlRowSet;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * List query read from a forward-only result set fetched fetchSize rows at a time. Cursor fetch is switched on for
+ * this statement only, so MySQL serves the rows from a server-side cursor while every other statement on the
+ * connection keeps the default buffered results; the cursor needs the server-side prepared statements that the
+ * connection URL enables. Rows are hydrated in chunks of CHUNK_SIZE while the result set is still open, so hydration
+ * runs on the same connection, and in the same transaction, as the query itself, and no more than one chunk of rows
+ * is held at a time.
+ */
+public class RowReader<T> {
+    private static final int CHUNK_SIZE = 256;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final String query;
+    private final Object[] args;
+    private final Function<SqlRowSet, T> mapper;
+    private final int fetchSize;
+    private final Consumer<List<T>> hydrator;
+
+    public RowReader(JdbcTemplate jdbcTemplate, String query, Object[] args, Function<SqlRowSet, T> mapper,
+                     int fetchSize, Consumer<List<T>> hydrator) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.query = query;
+        this.args = args;
+        this.mapper = mapper;
+        this.fetchSize = fetchSize;
+        this.hydrator = hydrator;
+    }
+
+    /**
+     * Hands rows to sink like {@link #read(Consumer)} and returns the cursor of the last row when the page is full,
+     * or null when it is the last page.
+     */
+    public String read(Consumer<List<T>> sink, Integer limit, Function<T, String> cursor) {
+        final AtomicReference<T> last = new AtomicReference<>();
+        final AtomicInteger count = new AtomicInteger();
+        read(chunk -> {
+            sink.accept(chunk);
+            count.addAndGet(chunk.size());
+            last.set(chunk.get(chunk.size() - 1));
+        });
+        if (limit == null || count.get() == 0 || count.get() < limit) {
+            return null;
+        }
+        return cursor.apply(last.get());
+    }
+
+    /**
+     * Hands rows to sink a hydrated chunk at a time as they are fetched. The chunk is reused for the next rows once
+     * sink returns, so sink must not keep it.
+     */
+    public void read(Consumer<List<T>> sink) {
+        jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+            final com.mysql.jdbc.Connection mysql = connection.unwrap(com.mysql.jdbc.Connection.class);
+            try (PreparedStatement statement = Utils.forwardOnly(query, args, fetchSize)
+                    .createPreparedStatement(connection)) {
+                final boolean cursorFetch = mysql.getUseCursorFetch();
+                final ResultSet resultSet;
+                mysql.setUseCursorFetch(true);
+                try {
+                    resultSet = statement.executeQuery();
+                } finally {
+                    mysql.setUseCursorFetch(cursorFetch);
+                }
+                try {
+                    extract(resultSet, sink);
+                } finally {
+                    resultSet.close();
+                }
+                return null;
+            }
+        });
+    }
+
+    private void extract(ResultSet resultSet, Consumer<List<T>> sink) {
+        final SqlRowSet set = new ResultSetWrappingSqlRowSet(resultSet);
+        final List<T> chunk = new ArrayList<>(CHUNK_SIZE);
+        while (set.next()) {
+            chunk.add(mapper.apply(set));
+            if (chunk.size() == CHUNK_SIZE) {
+                flush(chunk, sink);
+            }
+        }
+        flush(chunk, sink);
+    }
+
+    private void flush(List<T> chunk, Consumer<List<T>> sink) {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        hydrator.accept(chunk);
+        sink.accept(chunk);
+        chunk.clear();
+    }
+}
@@ -0,0 +1,71 @@
+package ru.mail.park.main;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializable;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * List response whose rows are read while it is being serialized. The source runs in a transaction of its own, so
+ * every query of the list sees one snapshot and hydration shares the source's connection, and each hydrated chunk
+ * is written to the generator as soon as the source hands it over, so the page is never held whole. The source
+ * returns the cursor of the next page, which {@code ResponseBody} writes after the list.
+ *
+ * <p>The connection stays open while the rows are written. A failure before anything has been flushed is answered
+ * with an error body; once rows have reached the client the response is aborted instead of being completed.
+ */
+public class RowStream<T> implements JsonSerializable {
+    private final TransactionTemplate transactionTemplate;
+    private final Source<T> source;
+    private String cursor;
+
+    public RowStream(TransactionTemplate transactionTemplate, Source<T> source) {
+        this.transactionTemplate = transactionTemplate;
+        this.source = source;
+    }
+
+    public String getCursor() {
+        return cursor;
+    }
+
+    @Override
+    public void serialize(JsonGenerator generator, SerializerProvider provider) throws IOException {
+        generator.writeStartArray();
+        try {
+            cursor = transactionTemplate.execute(status -> source.read(chunk -> write(chunk, generator, provider)));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        generator.writeEndArray();
+    }
+
+    @Override
+    public void serializeWithType(JsonGenerator generator, SerializerProvider provider, TypeSerializer serializer)
+            throws IOException {
+        serialize(generator, provider);
+    }
+
+    private void write(List<T> chunk, JsonGenerator generator, SerializerProvider provider) {
+        try {
+            for (T row : chunk) {
+                provider.defaultSerializeValue(row, generator);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Queries of one list. They hand their rows to sink a hydrated chunk at a time and return the next page's cursor,
+     * or null on the last page.
+     */
+    public interface Source<T> {
+        String read(Consumer<List<T>> sink);
+    }
+}
@@ -0,0 +1,32 @@
+package ru.mail.park.main;
+
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.TransactionDefinition;
+
+import javax.sql.DataSource;
+
+/**
+ * Transaction manager that tells {@link WriteThroughCache} when each transaction begins, before its first statement
+ * takes the snapshot, so users and threads loaded in read endpoints can be cached without caching a stale snapshot.
+ */
+@Component
+public class SnapshotTransactionManager extends DataSourceTransactionManager {
+    private static final long serialVersionUID = 1L;
+
+    public SnapshotTransactionManager(DataSource dataSource) {
+        super(dataSource);
+    }
+
+    @Override
+    protected void doBegin(Object transaction, TransactionDefinition definition) {
+        super.doBegin(transaction, definition);
+        WriteThroughCache.beginTransaction();
+    }
+
+    @Override
+    protected void doCleanupAfterCompletion(Object transaction) {
+        WriteThroughCache.endTransaction();
+        super.doCleanupAfterCompletion(transaction);
+    }
+}
@@ -1,12 +1,16 @@
 package ru.mail.park.main;
 
-import java.text.SimpleDateFormat;
+import org.springframework.jdbc.core.ArgumentPreparedStatementSetter;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 public class Utils {
-    public static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-
     public static boolean isArrayValid(String[] array, String... possibleValues) {
         if (array == null) {
             return true;
@@ -32,4 +36,23 @@ public class Utils {
         }
         return field;
     }
+
+    public static String inClause(int count) {
+        return '(' + String.join(", ", Collections.nCopies(count, "?")) + ')';
+    }
+
+    public static PreparedStatementCreator forwardOnly(String query, Object[] args, int fetchSize) {
+        return connection -> {
+            final PreparedStatement statement = connection.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY,
+                    ResultSet.CONCUR_READ_ONLY);
+            try {
+                statement.setFetchSize(fetchSize);
+                new ArgumentPreparedStatementSetter(args).setValues(statement);
+            } catch (SQLException e) {
+                statement.close();
+                throw e;
+            }
+            return statement;
+        };
+    }
 }
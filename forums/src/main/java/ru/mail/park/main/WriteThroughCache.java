@@ -0,0 +1,185 @@
+package ru.mail.park.main;
+
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Int-keyed cache of mutable entities that write endpoints patch in place. Changes made inside a transaction are
+ * applied after it commits, changes made outside of one must be idempotent. A value loaded while a change to the
+ * same lock stripe was in flight is returned to the caller but not cached.
+ *
+ * <p>Every change stamps its stripe from a clock shared by all caches. A load is cached only if no change to its
+ * stripe was stamped after the load started, and a load inside a transaction starts when the transaction does,
+ * since under REPEATABLE READ it sees the snapshot taken by the transaction's first statement. The transaction
+ * manager reports that start through {@link #beginTransaction()}; loads in a transaction it did not report are not
+ * cached.
+ */
+public class WriteThroughCache<V> {
+    private static final int STRIPES = 64;
+    private static final AtomicLong CLOCK = new AtomicLong();
+    private static final ThreadLocal<Deque<Long>> STARTS = ThreadLocal.withInitial(ArrayDeque::new);
+
+    private final int capacity;
+    private final Map<Integer, V> values = new ConcurrentHashMap<>();
+    private final Object[] locks = new Object[STRIPES];
+    private final long[] stamps = new long[STRIPES];
+    private final int[] pending = new int[STRIPES];
+
+    public WriteThroughCache(int capacity) {
+        this.capacity = capacity;
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    public V get(int id) {
+        return values.get(id);
+    }
+
+    public Map<Integer, V> get(Collection<Integer> ids, Function<List<Integer>, Map<Integer, V>> loader) {
+        final Map<Integer, V> result = new LinkedHashMap<>();
+        final List<Integer> missing = new ArrayList<>();
+        for (int id : ids) {
+            final V value = values.get(id);
+            if (value != null) {
+                result.put(id, value);
+            } else {
+                missing.add(id);
+            }
+        }
+        if (missing.isEmpty()) {
+            return result;
+        }
+        final long start = loadStart();
+        final Map<Integer, V> loaded = loader.apply(missing);
+        for (int id : missing) {
+            final int stripe = stripe(id);
+            V value = loaded.get(id);
+            if (value == null) {
+                continue;
+            }
+            synchronized (locks[stripe]) {
+                if (start >= 0 && pending[stripe] == 0 && stamps[stripe] <= start && values.size() < capacity) {
+                    final V cached = values.putIfAbsent(id, value);
+                    if (cached != null) {
+                        value = cached;
+                    }
+                }
+            }
+            result.put(id, value);
+        }
+        return result;
+    }
+
+    public <R> R read(int id, Supplier<R> reader) {
+        synchronized (locks[stripe(id)]) {
+            return reader.get();
+        }
+    }
+
+    /**
+     * Caches the value of a row inserted after stamp was taken, once the insert has committed. A change stamped on
+     * the same stripe since then, or still pending there, may have reached the committed row but not this value, so
+     * the value is then left for the next load instead.
+     */
+    public void put(int id, V value, long stamp) {
+        final int stripe = stripe(id);
+        synchronized (locks[stripe]) {
+            if (pending[stripe] == 0 && stamps[stripe] <= stamp && values.size() < capacity) {
+                values.putIfAbsent(id, value);
+            }
+        }
+    }
+
+    public void update(int id, Consumer<V> change) {
+        apply(id, change);
+    }
+
+    /**
+     * Keeps loads of the id out of the cache until the current transaction completes, for writes that change the row
+     * but leave the cached value as it is.
+     */
+    public void markPending(int id) {
+        apply(id, null);
+    }
+
+    private void apply(int id, Consumer<V> change) {
+        final int stripe = stripe(id);
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            synchronized (locks[stripe]) {
+                stamps[stripe] = CLOCK.incrementAndGet();
+                final V value = values.get(id);
+                if (value != null && change != null) {
+                    change.accept(value);
+                }
+            }
+            return;
+        }
+        synchronized (locks[stripe]) {
+            pending[stripe]++;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCompletion(int status) {
+                synchronized (locks[stripe]) {
+                    stamps[stripe] = CLOCK.incrementAndGet();
+                    pending[stripe]--;
+                    final V value = values.get(id);
+                    if (value != null && change != null && status == STATUS_COMMITTED) {
+                        change.accept(value);
+                    } else if (status == STATUS_UNKNOWN) {
+                        values.remove(id);
+                    }
+                }
+            }
+        });
+    }
+
+    public void evict(int id) {
+        update(id, value -> values.remove(id));
+    }
+
+    public void clear() {
+        for (int i = 0; i < STRIPES; i++) {
+            synchronized (locks[i]) {
+                stamps[i] = CLOCK.incrementAndGet();
+            }
+        }
+        values.clear();
+    }
+
+    public static long stamp() {
+        return CLOCK.get();
+    }
+
+    /**
+     * Records that a new transaction is about to run its first statement on this thread. Calls nest, so a transaction
+     * suspended for an inner one keeps its own start.
+     */
+    public static void beginTransaction() {
+        STARTS.get().push(CLOCK.get());
+    }
+
+    public static void endTransaction() {
+        STARTS.get().poll();
+    }
+
+    private static long loadStart() {
+        if (!TransactionSynchronizationManager.isActualTransactionActive()) {
+            return CLOCK.get();
+        }
+        final Long start = STARTS.get().peek();
+        return start != null ? start : -1;
+    }
+
+    private static int stripe(int id) {
+        return id & (STRIPES - 1);
+    }
+}
@@ -0,0 +1,101 @@
+package ru.mail.park.main;
+
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.util.StreamUtils;
+
+import javax.servlet.FilterChain;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+public class CompressionFilterTest {
+    private final CompressionFilter filter = new CompressionFilter(true, 1024, new String[]{"/db/api/*/list*"},
+            new String[]{"/db/api/*/details"});
+
+    @Test
+    public void compressesListsWhateverTheSize() throws Exception {
+        final MockHttpServletResponse response = run("/db/api/post/list", true, body(10));
+        assertEquals("gzip", response.getHeader("Content-Encoding"));
+        assertEquals(body(10), gunzip(response.getContentAsByteArray()));
+    }
+
+    @Test
+    public void leavesSmallResponsesAlone() throws Exception {
+        final MockHttpServletResponse response = run("/db/api/thread/vote", true, body(100));
+        assertNull(response.getHeader("Content-Encoding"));
+        assertEquals(100, response.getContentLength());
+        assertEquals(body(100), response.getContentAsString());
+    }
+
+    @Test
+    public void compressesLargeResponses() throws Exception {
+        final MockHttpServletResponse response = run("/db/api/thread/vote", true, body(100000));
+        assertEquals("gzip", response.getHeader("Content-Encoding"));
+        assertEquals(body(100000), gunzip(response.getContentAsByteArray()));
+        final CompressionFilter.Stats stats = filter.stats();
+        assertEquals(1, stats.getCompressed());
+        assertEquals(100000, stats.getBytesIn());
+        assertEquals(response.getContentAsByteArray().length, stats.getBytesOut());
+        assertTrue(stats.getRatio() > 1);
+    }
+
+    @Test
+    public void honoursNeverAndAcceptEncoding() throws Exception {
+        assertNull(run("/db/api/post/details", true, body(100000)).getHeader("Content-Encoding"));
+        assertNull(run("/db/api/post/list", false, body(100000)).getHeader("Content-Encoding"));
+    }
+
+    @Test
+    public void resetsBufferedOutput() throws Exception {
+        final MockHttpServletResponse response = run("/db/api/thread/vote", true, (req, res) -> {
+            res.getOutputStream().write(body(100).getBytes(StandardCharsets.UTF_8));
+            res.resetBuffer();
+            res.getOutputStream().write(body(10).getBytes(StandardCharsets.UTF_8));
+        });
+        assertNull(response.getHeader("Content-Encoding"));
+        assertEquals(body(10), response.getContentAsString());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void refusesToResetCompressedOutput() throws Exception {
+        run("/db/api/post/list", true, (req, res) -> {
+            res.getOutputStream().write(body(100).getBytes(StandardCharsets.UTF_8));
+            res.resetBuffer();
+        });
+    }
+
+    private MockHttpServletResponse run(String path, boolean acceptsGzip, String body) throws Exception {
+        return run(path, acceptsGzip, (req, res) -> {
+            res.setContentLength(body.length());
+            res.getOutputStream().write(body.getBytes(StandardCharsets.UTF_8));
+        });
+    }
+
+    private MockHttpServletResponse run(String path, boolean acceptsGzip, FilterChain chain) throws Exception {
+        final MockHttpServletRequest request = new MockHttpServletRequest("GET", path);
+        if (acceptsGzip) {
+            request.addHeader("Accept-Encoding", "gzip, deflate");
+        }
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(request, response, chain);
+        return response;
+    }
+
+    private static String body(int length) {
+        final char[] chars = new char[length];
+        Arrays.fill(chars, 'a');
+        for (int i = 0; i < length; i += 7) {
+            chars[i] = (char) ('a' + i % 26);
+        }
+        return new String(chars);
+    }
+
+    private static String gunzip(byte[] bytes) throws Exception {
+        return StreamUtils.copyToString(new GZIPInputStream(new ByteArrayInputStream(bytes)), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,39 @@
+package ru.mail.park.main;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CursorTest {
+    @Test
+    public void roundTripsKeys() {
+        final byte[] path = {0, 0, 0, 1, 0, 0, 0, 2};
+        final Object[] keys = Cursor.decode(Cursor.encode(7, path), Cursor.Key.ID, Cursor.Key.PATH);
+        assertEquals(7, keys[0]);
+        assertArrayEquals(path, (byte[]) keys[1]);
+        assertArrayEquals(new Object[]{null, 3},
+                Cursor.decode(Cursor.encode(null, 3), Cursor.Key.NAME, Cursor.Key.ID));
+        assertArrayEquals(new Object[]{"2014-01-01 00:00:00", 3},
+                Cursor.decode(Cursor.encode("2014-01-01 00:00:00", 3), Cursor.Key.DATE, Cursor.Key.ID));
+    }
+
+    @Test(expected = Cursor.InvalidCursorException.class)
+    public void rejectsKeysOfAnotherEndpoint() {
+        Cursor.decode(Cursor.encode("name", 3), Cursor.Key.ID, Cursor.Key.PATH);
+    }
+
+    @Test(expected = Cursor.InvalidCursorException.class)
+    public void rejectsMissingRequiredKey() {
+        Cursor.decode(Cursor.encode(null, 3), Cursor.Key.DATE, Cursor.Key.ID);
+    }
+
+    @Test(expected = Cursor.InvalidCursorException.class)
+    public void rejectsTrailingBytes() {
+        Cursor.decode(Cursor.encode(3) + "AA", Cursor.Key.ID);
+    }
+
+    @Test(expected = Cursor.InvalidCursorException.class)
+    public void rejectsGarbage() {
+        Cursor.decode("not a cursor", Cursor.Key.ID);
+    }
+}
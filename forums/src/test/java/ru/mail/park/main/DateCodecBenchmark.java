@@ -0,0 +1,58 @@
+package ru.mail.park.main;
+
+import java.sql.Timestamp;
+import java.text.SimpleDateFormat;
+import java.util.Random;
+
+/**
+ * Compares DateCodec with SimpleDateFormat and Timestamp.valueOf. Run with
+ * {@code mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=ru.mail.park.main.DateCodecBenchmark}.
+ */
+public final class DateCodecBenchmark {
+    private static final int SAMPLES = 1 << 16;
+    private static final int ITERATIONS = 5_000_000;
+    private static final int ROUNDS = 5;
+
+    private DateCodecBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        final Random random = new Random(42);
+        final long start = Timestamp.valueOf("2014-01-01 00:00:00").getTime();
+        final Timestamp[] timestamps = new Timestamp[SAMPLES];
+        final String[] texts = new String[SAMPLES];
+        final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        for (int i = 0; i < SAMPLES; i++) {
+            timestamps[i] = new Timestamp(start + random.nextInt(100000) * 1000L);
+            texts[i] = format.format(timestamps[i]);
+        }
+        for (int round = 0; round < ROUNDS; round++) {
+            long sink = 0;
+            long time = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                sink += format.format(timestamps[i & (SAMPLES - 1)]).length();
+            }
+            report("SimpleDateFormat.format", time);
+            time = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                sink += DateCodec.format(timestamps[i & (SAMPLES - 1)]).length();
+            }
+            report("DateCodec.format", time);
+            time = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                sink += Timestamp.valueOf(texts[i & (SAMPLES - 1)]).getTime();
+            }
+            report("Timestamp.valueOf", time);
+            time = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                sink += DateCodec.parse(texts[i & (SAMPLES - 1)]).getTime();
+            }
+            report("DateCodec.parse", time);
+            System.out.println("round " + round + " sink " + sink);
+        }
+    }
+
+    private static void report(String name, long start) {
+        System.out.printf("%-24s %6.1f ns/op%n", name, (double) (System.nanoTime() - start) / ITERATIONS);
+    }
+}
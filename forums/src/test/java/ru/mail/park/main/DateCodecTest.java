@@ -0,0 +1,111 @@
+package ru.mail.park.main;
+
+import org.junit.Test;
+
+import java.sql.Timestamp;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class DateCodecTest {
+    private static final long START = Timestamp.valueOf("1900-01-01 00:00:00").getTime();
+    private static final long END = Timestamp.valueOf("2100-01-01 00:00:00").getTime();
+
+    @Test
+    public void matchesSimpleDateFormat() {
+        final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        final Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            final Timestamp timestamp = new Timestamp(START + (long) (random.nextDouble() * (END - START)));
+            final String expected = format.format(timestamp);
+            assertEquals(expected, DateCodec.format(timestamp));
+            assertEquals(Timestamp.valueOf(expected), DateCodec.parse(expected));
+        }
+    }
+
+    @Test
+    public void parsesOtherFormatsLikeTimestamp() {
+        assertEquals(Timestamp.valueOf("2014-01-01 00:00:01.5"), DateCodec.parse("2014-01-01 00:00:01.5"));
+        assertEquals(Timestamp.valueOf("2014-1-1 0:0:1"), DateCodec.parse("2014-1-1 0:0:1"));
+        assertEquals(Timestamp.valueOf("2014-02-30 12:00:00"), DateCodec.parse("2014-02-30 12:00:00"));
+    }
+
+    @Test
+    public void resolvesDaylightSavingTransitions() {
+        final TimeZone berlin = TimeZone.getTimeZone("Europe/Berlin");
+        assertEquals(instant("2014-03-30T00:30:00Z"), toInstant("2014-03-30 01:30:00", berlin));
+        assertEquals(instant("2014-03-30T01:30:00Z"), toInstant("2014-03-30 02:30:00", berlin));
+        assertEquals(instant("2014-03-30T01:30:00Z"), toInstant("2014-03-30 03:30:00", berlin));
+        assertEquals(instant("2014-10-25T23:30:00Z"), toInstant("2014-10-26 01:30:00", berlin));
+        assertEquals(instant("2014-10-26T01:30:00Z"), toInstant("2014-10-26 02:30:00", berlin));
+        assertEquals(instant("2014-10-26T02:30:00Z"), toInstant("2014-10-26 03:30:00", berlin));
+    }
+
+    @Test
+    public void resolvesLikeLenientCalendar() {
+        final TimeZone berlin = TimeZone.getTimeZone("Europe/Berlin");
+        final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        format.setTimeZone(berlin);
+        for (String text : new String[]{"2014-03-30 02:00:00", "2014-03-30 02:59:59", "2014-10-26 02:00:00",
+                "2014-10-26 02:59:59", "2014-10-26 03:00:00"}) {
+            assertEquals(text, parse(format, text), toInstant(text, berlin));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsGarbage() {
+        DateCodec.parse("2014-01-01T00:00:01");
+    }
+
+    @Test
+    public void formatsConcurrently() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<Boolean>> results = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                final long seed = t;
+                results.add(executor.submit(() -> {
+                    final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+                    final Random random = new Random(seed);
+                    for (int i = 0; i < 50000; i++) {
+                        final Timestamp timestamp = new Timestamp(START + random.nextInt(10000) * 1000L);
+                        if (!format.format(timestamp).equals(DateCodec.format(timestamp))) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static long toInstant(String text, TimeZone zone) {
+        return DateCodec.toInstant(DateCodec.parseLocal(text) * 1000, zone);
+    }
+
+    private static long instant(String text) {
+        return Instant.parse(text).toEpochMilli();
+    }
+
+    private static long parse(SimpleDateFormat format, String text) {
+        try {
+            return format.parse(text).getTime();
+        } catch (ParseException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+}
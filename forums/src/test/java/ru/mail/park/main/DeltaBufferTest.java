@@ -0,0 +1,36 @@
+package ru.mail.park.main;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class DeltaBufferTest {
+    @Test
+    public void countsDrainedDeltasUntilCommit() {
+        final DeltaBuffer buffer = new DeltaBuffer(2);
+        buffer.add(7, 0, 2);
+        final Map<Integer, int[]> drained = buffer.drain();
+        assertArrayEquals(new int[]{2, 0}, drained.get(7));
+        assertEquals(0, buffer.size());
+        buffer.add(7, 1, 1);
+        assertArrayEquals(new int[]{2, 1}, buffer.get(7));
+        buffer.complete(true);
+        assertArrayEquals(new int[]{0, 1}, buffer.get(7));
+    }
+
+    @Test
+    public void foldsDrainedDeltasBackOnRollback() {
+        final DeltaBuffer buffer = new DeltaBuffer(2);
+        buffer.add(7, 0, 2);
+        buffer.add(8, 1, 3);
+        buffer.drain(Collections.singleton(7));
+        buffer.add(7, 0, 1);
+        buffer.complete(false);
+        assertArrayEquals(new int[]{3, 0}, buffer.get(7));
+        assertArrayEquals(new int[]{0, 3}, buffer.get(8));
+        assertEquals(2, buffer.size());
+    }
+}
@@ -0,0 +1,151 @@
+package ru.mail.park.main;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static org.junit.Assert.*;
+
+public class GroupCommitQueueTest {
+    private GroupCommitQueue<Integer, Integer> queue;
+
+    @After
+    public void stop() {
+        if (queue != null) {
+            queue.stop();
+        }
+    }
+
+    @Test
+    public void batchesItemsQueuedWhileWriting() throws Exception {
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Integer> sizes = Collections.synchronizedList(new ArrayList<>());
+        start(10, values -> {
+            writing.countDown();
+            await(release);
+            sizes.add(values.size());
+            return doubled(values);
+        });
+        final CompletableFuture<Integer> first = queue.submit(0);
+        assertTrue(writing.await(1, TimeUnit.SECONDS));
+        final List<CompletableFuture<Integer>> rest = new ArrayList<>();
+        for (int i = 1; i <= 5; i++) {
+            rest.add(queue.submit(i));
+        }
+        release.countDown();
+        assertEquals(0, (int) first.get(1, TimeUnit.SECONDS));
+        for (int i = 1; i <= 5; i++) {
+            assertEquals(i * 2, (int) rest.get(i - 1).get(1, TimeUnit.SECONDS));
+        }
+        assertEquals(Integer.valueOf(1), sizes.get(0));
+        assertEquals(Integer.valueOf(5), sizes.get(1));
+    }
+
+    @Test
+    public void retriesFailedBatchItemByItem() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        start(10, values -> {
+            await(release);
+            if (values.contains(-1)) {
+                throw new IllegalArgumentException("bad item");
+            }
+            return doubled(values);
+        });
+        final CompletableFuture<Integer> good = queue.submit(1);
+        final CompletableFuture<Integer> bad = queue.submit(-1);
+        final CompletableFuture<Integer> other = queue.submit(2);
+        release.countDown();
+        assertEquals(2, (int) good.get(1, TimeUnit.SECONDS));
+        assertEquals(4, (int) other.get(1, TimeUnit.SECONDS));
+        try {
+            bad.get(1, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+    }
+
+    @Test
+    public void failsPendingItemsWhenWriterDies() throws Exception {
+        start(10, values -> {
+            throw new AssertionError("writer died");
+        });
+        try {
+            queue.write(1);
+            fail();
+        } catch (GroupCommitQueue.RejectedException ignore) {
+        }
+        try {
+            queue.write(2);
+            fail();
+        } catch (GroupCommitQueue.RejectedException ignore) {
+        }
+    }
+
+    @Test
+    public void timesOutSlowWrites() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        queue = new GroupCommitQueue<>("test-writer", 10, 0, 100, values -> {
+            await(release);
+            return doubled(values);
+        });
+        queue.start();
+        try {
+            queue.write(1);
+            fail();
+        } catch (GroupCommitQueue.RejectedException ignore) {
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void writesQueuedItemsOnStopAndRejectsLaterOnes() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        start(1, values -> {
+            await(release);
+            return doubled(values);
+        });
+        final CompletableFuture<Integer> first = queue.submit(1);
+        final CompletableFuture<Integer> second = queue.submit(2);
+        release.countDown();
+        queue.stop();
+        assertEquals(2, (int) first.get(1, TimeUnit.SECONDS));
+        assertEquals(4, (int) second.get(1, TimeUnit.SECONDS));
+        try {
+            queue.submit(3);
+            fail();
+        } catch (GroupCommitQueue.RejectedException ignore) {
+        }
+    }
+
+    private void start(int batchSize, Function<List<Integer>, List<Integer>> writer) {
+        queue = new GroupCommitQueue<>("test-writer", batchSize, 50, 5000, writer);
+        queue.start();
+    }
+
+    private static List<Integer> doubled(List<Integer> values) {
+        final List<Integer> results = new ArrayList<>(values.size());
+        for (int value : values) {
+            results.add(value * 2);
+        }
+        return results;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
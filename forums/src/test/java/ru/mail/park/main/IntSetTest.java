@@ -0,0 +1,45 @@
+package ru.mail.park.main;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class IntSetTest {
+    @Test
+    public void addAndRemove() {
+        final IntSet set = new IntSet();
+        assertTrue(set.add(1));
+        assertTrue(set.add(2));
+        assertFalse(set.add(1));
+        assertEquals(2, set.size());
+        assertTrue(set.remove(1));
+        assertFalse(set.remove(1));
+        assertFalse(set.contains(1));
+        assertTrue(set.contains(2));
+        assertArrayEquals(new int[]{2}, set.toArray());
+    }
+
+    @Test
+    public void matchesHashSet() {
+        final Random random = new Random(42);
+        final IntSet set = new IntSet();
+        final Set<Integer> expected = new HashSet<>();
+        for (int i = 0; i < 100000; i++) {
+            final int value = random.nextInt(5000);
+            if (random.nextBoolean()) {
+                assertEquals(expected.add(value), set.add(value));
+            } else {
+                assertEquals(expected.remove(value), set.remove(value));
+            }
+        }
+        assertEquals(expected.size(), set.size());
+        final int[] array = set.toArray();
+        Arrays.sort(array);
+        assertArrayEquals(expected.stream().mapToInt(i -> i).sorted().toArray(), array);
+    }
+}
@@ -0,0 +1,66 @@
+package ru.mail.park.main;
+
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RowStreamTest {
+    private final List<String> events = new ArrayList<>();
+    private final TransactionTemplate transactionTemplate = new TransactionTemplate(new PlatformTransactionManager() {
+        @Override
+        public TransactionStatus getTransaction(TransactionDefinition definition) {
+            events.add("begin");
+            return new SimpleTransactionStatus();
+        }
+
+        @Override
+        public void commit(TransactionStatus status) {
+            events.add("commit");
+        }
+
+        @Override
+        public void rollback(TransactionStatus status) {
+            events.add("rollback");
+        }
+    });
+
+    @Test
+    public void writesChunksInsideTransaction() throws Exception {
+        final RowStream<Integer> stream = new RowStream<>(transactionTemplate, sink -> {
+            events.add("read");
+            sink.accept(Arrays.asList(1, 2));
+            sink.accept(Arrays.asList(3));
+            return "next";
+        });
+        assertNull(stream.getCursor());
+        assertEquals("[1,2,3]", new ObjectMapper().writeValueAsString(stream));
+        assertEquals("next", stream.getCursor());
+        assertEquals(Arrays.asList("begin", "read", "commit"), events);
+    }
+
+    @Test
+    public void rollsBackFailedRead() throws Exception {
+        final RowStream<Integer> stream = new RowStream<>(transactionTemplate, sink -> {
+            throw new DataAccessResourceFailureException("connection lost");
+        });
+        try {
+            new ObjectMapper().writeValueAsString(stream);
+            fail();
+        } catch (JsonMappingException e) {
+            assertTrue(e.getCause() instanceof DataAccessResourceFailureException);
+        }
+        assertEquals(Arrays.asList("begin", "rollback"), events);
+    }
+}